@@ -16,7 +16,7 @@ import com.google.inject.assistedinject.Assisted;
 import java.io.IOException;
 import java.util.Collection;
 import java.util.List;
-import java.util.concurrent.ExecutionException;
+import java.util.stream.Collectors;
 import org.eclipse.jgit.lib.BatchRefUpdate;
 import org.eclipse.jgit.lib.PersonIdent;
 import org.eclipse.jgit.lib.ProgressMonitor;
@@ -174,19 +174,12 @@ class BatchRefUpdateWithCacheUpdate extends BatchRefUpdate {
   }
 
   private void evictCache() throws IOException {
-    try {
-      for (ReceiveCommand cmd : delegate.getCommands()) {
-        if (cmd.getResult() == ReceiveCommand.Result.OK) {
-          if (cmd.getType() == ReceiveCommand.Type.DELETE) {
-            refsCache.evict(
-                repo.getProjectName(), cmd.getRefName(), repo.getCachedRefDatabase().getDelegate());
-          } else {
-            refsCache.updateRef(repo.getProjectName(), cmd.getRefName(), delegateRefDb);
-          }
-        }
-      }
-    } catch (ExecutionException e) {
-      throw new IOException(e);
+    List<ReceiveCommand> successful =
+        delegate.getCommands().stream()
+            .filter(cmd -> cmd.getResult() == ReceiveCommand.Result.OK)
+            .collect(Collectors.toList());
+    if (!successful.isEmpty()) {
+      refsCache.updateRefs(repo.getProjectName(), successful, delegateRefDb);
     }
   }
 }
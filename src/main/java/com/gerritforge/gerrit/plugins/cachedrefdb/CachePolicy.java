@@ -0,0 +1,240 @@
+// Copyright (C) 2026 GerritForge, Inc.
+//
+// Licensed under the BSL 1.1 (the "License");
+// you may not use this file except in compliance with the License.
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.gerritforge.gerrit.plugins.cachedrefdb;
+
+import static com.gerritforge.gerrit.plugins.cachedrefdb.RefDatabaseCacheImpl.REF_NAMES_BY_PROJECT;
+import static com.google.common.collect.ImmutableList.toImmutableList;
+
+import com.google.common.cache.Cache;
+import com.google.common.collect.ImmutableList;
+import com.google.common.flogger.FluentLogger;
+import com.google.gerrit.metrics.Counter0;
+import com.google.gerrit.metrics.Description;
+import com.google.gerrit.metrics.MetricMaker;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+import org.eclipse.jgit.lib.Ref;
+
+/**
+ * Decides which calls of {@link RefDatabaseCacheImpl} are served from the cache and which go
+ * straight to the ref database of the project: projects can be excluded by name or pattern, or
+ * once their refs exceed a maximum count, and refs can be excluded by prefix.
+ *
+ * <p>Refs under an excluded prefix are never held in the cache: a call which may read them, like a
+ * listing of all refs, goes to the ref database as a whole.
+ *
+ * <p>When adaptive, the reads and updates of each project are counted over windows of calls: a
+ * project whose share of updates reaches {@link CachedRefDbConfig#getDemoteWritePercent()} is not
+ * cached anymore, as each update costs a read of the updated ref and a write lock on its tree for
+ * little gain, until its share of updates drops to {@link
+ * CachedRefDbConfig#getPromoteWritePercent()}. Its cached refs are dropped on both transitions:
+ * the updates meanwhile were not applied to them.
+ */
+@Singleton
+class CachePolicy {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  private final Predicate<String> excludedProjects;
+  private final ImmutableList<String> excludedRefPrefixes;
+  private final int maxRefs;
+  private final CachedRefDbConfig config;
+  private final Cache<String, ProjectRefs> refNamesByProject;
+  private final Map<String, Boolean> excludedByName = new ConcurrentHashMap<>();
+  private final Set<String> tooLarge = ConcurrentHashMap.newKeySet();
+  private final Map<String, Workload> workloads = new ConcurrentHashMap<>();
+  private final Set<String> demoted = ConcurrentHashMap.newKeySet();
+  private final Counter0 cacheCalls;
+  private final Counter0 delegateCalls;
+  private final Counter0 demotions;
+  private final Counter0 promotions;
+
+  private static final class Workload {
+    final LongAdder reads = new LongAdder();
+    final LongAdder writes = new LongAdder();
+    final AtomicLong calls = new AtomicLong();
+  }
+
+  @Inject
+  CachePolicy(
+      CachedRefDbConfig config,
+      @Named(REF_NAMES_BY_PROJECT) Cache<String, ProjectRefs> refNamesByProject,
+      MetricMaker metricMaker) {
+    this.config = config;
+    this.refNamesByProject = refNamesByProject;
+    this.excludedProjects = ProjectPatterns.anyOf(config.getExcludedProjects());
+    this.excludedRefPrefixes = ImmutableList.copyOf(config.getExcludedRefPrefixes());
+    this.maxRefs = config.getMaxRefs();
+    this.cacheCalls =
+        metricMaker.newCounter(
+            "cached_refdb/cache_calls",
+            new Description("Calls served from the cached refs").setRate().setUnit("calls"));
+    this.delegateCalls =
+        metricMaker.newCounter(
+            "cached_refdb/delegate_calls",
+            new Description("Calls sent to the ref database as excluded from the cache")
+                .setRate()
+                .setUnit("calls"));
+    this.demotions =
+        metricMaker.newCounter(
+            "cached_refdb/project_demotions",
+            new Description("Projects not cached anymore as mostly updated")
+                .setRate()
+                .setUnit("projects"));
+    this.promotions =
+        metricMaker.newCounter(
+            "cached_refdb/project_promotions",
+            new Description("Projects cached again as mostly read").setRate().setUnit("projects"));
+  }
+
+  /**
+   * Decide whether a call is served from the cache, and count it.
+   *
+   * @param project project name
+   * @param prefixes ref name prefixes, or full ref names, the call may read or update
+   * @return {@code true} to serve the call from the cache, {@code false} to send it to the ref
+   *     database
+   */
+  boolean route(String project, String... prefixes) {
+    record(project, false, 1);
+    boolean cached = isCached(project) && !isAnyExcluded(prefixes);
+    (cached ? cacheCalls : delegateCalls).increment();
+    return cached;
+  }
+
+  /**
+   * Decide whether an update of the refs of a project is applied to the cache, and count it.
+   *
+   * @param project project name
+   * @return {@code true} if the refs of the project are cached
+   */
+  boolean routeUpdate(String project) {
+    return routeUpdate(project, 1);
+  }
+
+  /**
+   * Decide whether a batch of updates of the refs of a project is applied to the cache, and count
+   * each of them.
+   *
+   * @param project project name
+   * @param updates number of refs updated
+   * @return {@code true} if the refs of the project are cached
+   */
+  boolean routeUpdate(String project, int updates) {
+    record(project, true, updates);
+    return isCached(project);
+  }
+
+  /**
+   * Check whether the refs of a project may be cached at all.
+   *
+   * @param project project name
+   * @return whether the project is not excluded
+   */
+  boolean isCached(String project) {
+    return !tooLarge.contains(project)
+        && !demoted.contains(project)
+        && isCachedByName(project);
+  }
+
+  /**
+   * Check whether a ref may be held in the cache.
+   *
+   * @param refName ref name
+   * @return whether the ref is not under an excluded prefix
+   */
+  boolean isCachedRef(String refName) {
+    return !isAnyExcluded(refName);
+  }
+
+  /**
+   * Drop the refs under an excluded prefix.
+   *
+   * @param refs refs read from the ref database
+   * @return the refs to hold in the cache
+   */
+  List<Ref> cachedRefs(List<Ref> refs) {
+    if (excludedRefPrefixes.isEmpty()) {
+      return refs;
+    }
+    return refs.stream().filter(ref -> isCachedRef(ref.getName())).collect(toImmutableList());
+  }
+
+  /**
+   * Exclude a project from the cache from now on if it holds too many refs.
+   *
+   * @param project project name
+   * @param refCount number of cached refs of the project
+   * @return {@code false} if the project was just excluded
+   */
+  boolean checkRefCount(String project, int refCount) {
+    if (maxRefs <= 0 || refCount <= maxRefs || !tooLarge.add(project)) {
+      return true;
+    }
+    logger.atInfo().log(
+        "Not caching the refs of %s anymore: %d refs, more than %d", project, refCount, maxRefs);
+    return false;
+  }
+
+  private void record(String project, boolean write, int count) {
+    if (!config.isAdaptive() || tooLarge.contains(project) || !isCachedByName(project)) {
+      return;
+    }
+    Workload workload = workloads.computeIfAbsent(project, p -> new Workload());
+    (write ? workload.writes : workload.reads).add(count);
+    long window = config.getAdaptiveWindow();
+    long calls = workload.calls.addAndGet(count);
+    if (calls / window != (calls - count) / window) {
+      adapt(project, workload);
+    }
+  }
+
+  private void adapt(String project, Workload workload) {
+    long writes = workload.writes.sumThenReset();
+    long calls = writes + workload.reads.sumThenReset();
+    if (calls == 0) {
+      return;
+    }
+    long writePercent = writes * 100 / calls;
+    if (writePercent >= config.getDemoteWritePercent() && demoted.add(project)) {
+      demotions.increment();
+      logger.atInfo().log("Not caching the refs of %s: %d%% updates", project, writePercent);
+      refNamesByProject.invalidate(project);
+    } else if (writePercent <= config.getPromoteWritePercent() && demoted.remove(project)) {
+      promotions.increment();
+      logger.atInfo().log("Caching the refs of %s again: %d%% updates", project, writePercent);
+      refNamesByProject.invalidate(project);
+    }
+  }
+
+  private boolean isCachedByName(String project) {
+    return !excludedByName.computeIfAbsent(project, excludedProjects::test);
+  }
+
+  private boolean isAnyExcluded(String... prefixes) {
+    for (String excluded : excludedRefPrefixes) {
+      for (String prefix : prefixes) {
+        if (prefix != null && (prefix.startsWith(excluded) || excluded.startsWith(prefix))) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+}
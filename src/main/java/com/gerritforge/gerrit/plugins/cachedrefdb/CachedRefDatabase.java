@@ -135,23 +135,17 @@ class CachedRefDatabase extends RefDatabase {
 
   @Override
   public Map<String, Ref> exactRef(String... refs) throws IOException {
-    return delegate.exactRef(refs);
+    return refsCache.getAll(repo.getProjectName(), refs, delegate);
   }
 
   @Override
   public Ref firstExactRef(String... refs) throws IOException {
-    return delegate.firstExactRef(refs);
+    return refsCache.getFirst(repo.getProjectName(), refs, delegate);
   }
 
   @Override
   public List<Ref> getRefs() throws IOException {
-    List<Ref> allRefs = delegate.getRefs();
-    for (Ref ref : allRefs) {
-      if (!refsCache.containsKey(repo.getProjectName(), ref.getName(), delegate)) {
-        refsCache.put(repo.getProjectName(), ref, delegate);
-      }
-    }
-    return allRefs;
+    return getRefsByPrefix(RefDatabase.ALL);
   }
 
   @Override
@@ -178,6 +172,20 @@ class CachedRefDatabase extends RefDatabase {
     }
   }
 
+  @Override
+  public List<Ref> getRefsByPrefixWithExclusions(String include, Set<String> excludes)
+      throws IOException {
+    try {
+      return refsCache.allByPrefixWithExclusions(
+          repo.getProjectName(), include, excludes, delegate);
+    } catch (ExecutionException e) {
+      logger.atWarning().withCause(e).log(
+          "Cannot load refs from cache for project %s, prefix %s excluding %s",
+          repo.getProjectName(), include, excludes);
+      return delegate.getRefsByPrefixWithExclusions(include, excludes);
+    }
+  }
+
   @Override
   public Set<Ref> getTipsWithSha1(ObjectId id) throws IOException {
     try {
@@ -197,7 +205,13 @@ class CachedRefDatabase extends RefDatabase {
 
   @Override
   public boolean hasRefs() throws IOException {
-    return delegate.hasRefs();
+    try {
+      return refsCache.hasRefs(repo.getProjectName(), delegate);
+    } catch (ExecutionException e) {
+      logger.atWarning().withCause(e).log(
+          "Cannot load refs from cache for project %s", repo.getProjectName());
+      return delegate.hasRefs();
+    }
   }
 
   @Override
@@ -0,0 +1,228 @@
+// Copyright (C) 2026 GerritForge, Inc.
+//
+// Licensed under the BSL 1.1 (the "License");
+// you may not use this file except in compliance with the License.
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.gerritforge.gerrit.plugins.cachedrefdb;
+
+import com.google.common.collect.ImmutableList;
+import com.google.gerrit.server.config.GerritServerConfig;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.eclipse.jgit.lib.Config;
+
+@Singleton
+class CachedRefDbConfig {
+  static final String SECTION = "cachedRefdb";
+  static final String TREE_TYPE = "treeType";
+  static final String SHARD_BY_NAMESPACE = "shardByNamespace";
+  static final String LAZY_LOADING = "lazyLoading";
+  static final String WARM_UP_PROJECT = "warmUpProject";
+  static final String WARM_UP_TOP_PROJECTS = "warmUpTopProjects";
+  static final String WARM_UP_THREADS = "warmUpThreads";
+  static final String WARM_UP_TIMEOUT = "warmUpTimeout";
+  static final String MAX_STALENESS = "maxStaleness";
+  static final String CHECK_INTERVAL = "checkInterval";
+  static final String EXCLUDE_PROJECT = "excludeProject";
+  static final String EXCLUDE_REF_PREFIX = "excludeRefPrefix";
+  static final String MAX_REFS = "maxRefs";
+  static final String ADAPTIVE = "adaptive";
+  static final String ADAPTIVE_WINDOW = "adaptiveWindow";
+  static final String DEMOTE_WRITE_PERCENT = "demoteWritePercent";
+  static final String PROMOTE_WRITE_PERCENT = "promoteWritePercent";
+  static final String VERIFY_ALL_REFS = "verifyAllRefs";
+  static final String COMPACT_REFS = "compactRefs";
+
+  private final RefTreeType treeType;
+  private final boolean shardByNamespace;
+  private final boolean lazyLoading;
+  private final List<String> warmUpProjects;
+  private final int warmUpTopProjects;
+  private final int warmUpThreads;
+  private final Duration warmUpTimeout;
+  private final Duration maxStaleness;
+  private final Duration checkInterval;
+  private final List<String> excludedProjects;
+  private final List<String> excludedRefPrefixes;
+  private final int maxRefs;
+  private final boolean adaptive;
+  private final int adaptiveWindow;
+  private final int demoteWritePercent;
+  private final int promoteWritePercent;
+  private final boolean verifyAllRefs;
+  private final boolean compactRefs;
+  private final boolean fingerprintRefs;
+
+  @Inject
+  CachedRefDbConfig(@GerritServerConfig Config config) {
+    this.treeType =
+        config.getEnum(RefTreeType.values(), SECTION, null, TREE_TYPE, RefTreeType.TERNARY);
+    this.shardByNamespace = config.getBoolean(SECTION, SHARD_BY_NAMESPACE, true);
+    this.lazyLoading = shardByNamespace && config.getBoolean(SECTION, LAZY_LOADING, false);
+    this.warmUpProjects =
+        ImmutableList.copyOf(config.getStringList(SECTION, null, WARM_UP_PROJECT));
+    this.warmUpTopProjects = config.getInt(SECTION, WARM_UP_TOP_PROJECTS, 0);
+    this.warmUpThreads =
+        Math.max(
+            1,
+            config.getInt(SECTION, WARM_UP_THREADS, Runtime.getRuntime().availableProcessors()));
+    this.warmUpTimeout =
+        Duration.ofSeconds(
+            config.getTimeUnit(
+                SECTION, null, WARM_UP_TIMEOUT, TimeUnit.MINUTES.toSeconds(5), TimeUnit.SECONDS));
+    this.maxStaleness =
+        Duration.ofMillis(
+            config.getTimeUnit(SECTION, null, MAX_STALENESS, 0, TimeUnit.MILLISECONDS));
+    this.checkInterval =
+        Duration.ofMillis(
+            config.getTimeUnit(SECTION, null, CHECK_INTERVAL, 0, TimeUnit.MILLISECONDS));
+    this.excludedProjects =
+        ImmutableList.copyOf(config.getStringList(SECTION, null, EXCLUDE_PROJECT));
+    this.excludedRefPrefixes =
+        ImmutableList.copyOf(config.getStringList(SECTION, null, EXCLUDE_REF_PREFIX));
+    this.maxRefs = config.getInt(SECTION, MAX_REFS, 0);
+    this.adaptive = config.getBoolean(SECTION, ADAPTIVE, false);
+    this.adaptiveWindow = Math.max(1, config.getInt(SECTION, ADAPTIVE_WINDOW, 1000));
+    this.demoteWritePercent =
+        Math.min(100, Math.max(1, config.getInt(SECTION, DEMOTE_WRITE_PERCENT, 50)));
+    // Promoting at the demotion threshold would flip projects at every window.
+    this.promoteWritePercent =
+        Math.min(
+            demoteWritePercent - 1,
+            Math.max(0, config.getInt(SECTION, PROMOTE_WRITE_PERCENT, 20)));
+    this.verifyAllRefs = config.getBoolean(SECTION, VERIFY_ALL_REFS, false);
+    this.compactRefs = config.getBoolean(SECTION, COMPACT_REFS, false);
+    // Only the refs checks and the persistent cache ever compare fingerprints.
+    boolean persisted =
+        config.getString("cache", null, "directory") != null
+            && config.getLong(
+                    "cache",
+                    RefDatabaseCacheImpl.REF_NAMES_BY_PROJECT,
+                    "diskLimit",
+                    RefDatabaseCacheImpl.DEFAULT_DISK_LIMIT)
+                > 0;
+    this.fingerprintRefs = !checkInterval.isZero() || persisted;
+  }
+
+  RefTreeType getTreeType() {
+    return treeType;
+  }
+
+  boolean isShardByNamespace() {
+    return shardByNamespace;
+  }
+
+  /**
+   * Whether the namespaces of the refs of a project are loaded on first access rather than all at
+   * once, see {@link ShardedRefTree#lazy}. Only possible with {@link #isShardByNamespace()}.
+   */
+  boolean isLazyLoading() {
+    return lazyLoading;
+  }
+
+  /** Names or patterns of the projects to load at startup, see {@link RefTreeWarmUp}. */
+  List<String> getWarmUpProjects() {
+    return warmUpProjects;
+  }
+
+  /** Number of the most accessed projects of the previous run to load at startup. */
+  int getWarmUpTopProjects() {
+    return warmUpTopProjects;
+  }
+
+  int getWarmUpThreads() {
+    return warmUpThreads;
+  }
+
+  /** How long Gerrit startup waits for the warm-up before letting it finish in the background. */
+  Duration getWarmUpTimeout() {
+    return warmUpTimeout;
+  }
+
+  /**
+   * How long the refs of a project dropped from the cache may still be served while they are
+   * reloaded in the background, zero to always wait for the reload.
+   */
+  Duration getMaxStaleness() {
+    return maxStaleness;
+  }
+
+  /**
+   * How often the cached refs of a project are checked against the {@link RefsFingerprint} of the
+   * refs on disk when accessed, zero to never check them.
+   */
+  Duration getCheckInterval() {
+    return checkInterval;
+  }
+
+  /** Names or patterns of the projects never cached, see {@link CachePolicy}. */
+  List<String> getExcludedProjects() {
+    return excludedProjects;
+  }
+
+  /** Prefixes of the refs never cached, see {@link CachePolicy}. */
+  List<String> getExcludedRefPrefixes() {
+    return excludedRefPrefixes;
+  }
+
+  /** Number of refs above which a project is not cached anymore, zero for no limit. */
+  int getMaxRefs() {
+    return maxRefs;
+  }
+
+  /**
+   * Whether projects are switched between cached and not cached depending on their share of
+   * updates, see {@link CachePolicy}.
+   */
+  boolean isAdaptive() {
+    return adaptive;
+  }
+
+  /** Number of calls to a project after which its share of updates is checked. */
+  int getAdaptiveWindow() {
+    return adaptiveWindow;
+  }
+
+  /** Percentage of updates over a window from which a cached project is not cached anymore. */
+  int getDemoteWritePercent() {
+    return demoteWritePercent;
+  }
+
+  /** Percentage of updates over a window up to which a project not cached is cached again. */
+  int getPromoteWritePercent() {
+    return promoteWritePercent;
+  }
+
+  /**
+   * Whether listings of all refs are read from the ref database and checked against the cached
+   * refs, which are dropped if they differ.
+   */
+  boolean isVerifyAllRefs() {
+    return verifyAllRefs;
+  }
+
+  /**
+   * Whether the refs of ref databases without versioning are cached as {@link CompactRef}s, which
+   * retain less heap but allocate their object ids on each read.
+   */
+  boolean isCompactRefs() {
+    return compactRefs;
+  }
+
+  /**
+   * Whether the {@link RefsFingerprint} of the refs on disk is taken when loading them, only
+   * needed with a {@link #getCheckInterval()} or when the cache is persisted.
+   */
+  boolean isFingerprintRefs() {
+    return fingerprintRefs;
+  }
+}
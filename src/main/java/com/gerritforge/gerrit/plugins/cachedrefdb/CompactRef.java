@@ -0,0 +1,164 @@
+// Copyright (C) 2026 GerritForge, Inc.
+//
+// Licensed under the BSL 1.1 (the "License");
+// you may not use this file except in compliance with the License.
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.gerritforge.gerrit.plugins.cachedrefdb;
+
+import org.eclipse.jgit.annotations.Nullable;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+
+/**
+ * A non-symbolic {@link Ref} holding its object id as five ints and its storage and peeled state
+ * as flag bits, instead of an {@code ObjectIdRef} pointing at a separate {@link ObjectId}: 40 bytes
+ * per ref instead of 64, see {@link CachedRefDbConfig#isCompactRefs()}.
+ *
+ * <p>The object ids are materialized on each call to {@link #getObjectId()} and {@link
+ * #getPeeledObjectId()}: compact refs trade an allocation per read for less heap retained by the
+ * cache. {@link ObjectIdIndex} compares them with object ids without materializing them.
+ *
+ * <p>Like refs read from a ref database without versioning, compact refs have no update index.
+ */
+class CompactRef implements Ref {
+  private static final Storage[] STORAGES = Storage.values();
+
+  private static final int STORAGE_MASK = 0x7;
+  private static final int PEELED = 0x8;
+
+  /**
+   * Get a compact copy of a ref, or the ref itself if symbolic, without object id or already
+   * compact.
+   *
+   * @param ref the ref
+   * @return a compact ref equivalent to {@code ref}, or {@code ref}
+   */
+  static Ref of(Ref ref) {
+    if (ref instanceof CompactRef || ref.isSymbolic() || ref.getObjectId() == null) {
+      return ref;
+    }
+    if (ref.getPeeledObjectId() != null) {
+      return new PeeledTag(
+          ref.getName(), ref.getStorage(), ref.getObjectId(), ref.getPeeledObjectId());
+    }
+    return new CompactRef(ref.getName(), ref.getStorage(), ref.isPeeled(), ref.getObjectId());
+  }
+
+  private final String name;
+  private final int w1, w2, w3, w4, w5;
+  private final byte flags;
+
+  private CompactRef(String name, Storage storage, boolean peeled, AnyObjectId id) {
+    this.name = name;
+    this.w1 = word(id, 0);
+    this.w2 = id.hashCode();
+    this.w3 = word(id, 2);
+    this.w4 = word(id, 3);
+    this.w5 = word(id, 4);
+    this.flags = (byte) (storage.ordinal() | (peeled ? PEELED : 0));
+  }
+
+  @Override
+  public String getName() {
+    return name;
+  }
+
+  @Override
+  public boolean isSymbolic() {
+    return false;
+  }
+
+  @Override
+  public Ref getLeaf() {
+    return this;
+  }
+
+  @Override
+  public Ref getTarget() {
+    return this;
+  }
+
+  @Override
+  public ObjectId getObjectId() {
+    return new ObjectId(w1, w2, w3, w4, w5);
+  }
+
+  @Override
+  @Nullable
+  public ObjectId getPeeledObjectId() {
+    return null;
+  }
+
+  @Override
+  public boolean isPeeled() {
+    return (flags & PEELED) != 0;
+  }
+
+  @Override
+  public Storage getStorage() {
+    return STORAGES[flags & STORAGE_MASK];
+  }
+
+  /**
+   * Get the hash code of the object id of the ref, without materializing it.
+   *
+   * @return the hash code of {@link #getObjectId()}
+   */
+  int objectIdHashCode() {
+    return w2;
+  }
+
+  /**
+   * Check whether the ref points at the given object id, without materializing its own.
+   *
+   * @param id object id
+   * @return whether {@link #getObjectId()} equals {@code id}
+   */
+  boolean pointsAt(AnyObjectId id) {
+    return id.hashCode() == w2
+        && word(id, 0) == w1
+        && word(id, 2) == w3
+        && word(id, 3) == w4
+        && word(id, 4) == w5;
+  }
+
+  @Override
+  public String toString() {
+    return "CompactRef[" + name + '=' + getObjectId().name() + ']';
+  }
+
+  /** Read the {@code i}-th big-endian int of an object id, as {@link AnyObjectId} holds it. */
+  private static int word(AnyObjectId id, int i) {
+    int b = i * 4;
+    return id.getByte(b) << 24
+        | id.getByte(b + 1) << 16
+        | id.getByte(b + 2) << 8
+        | id.getByte(b + 3);
+  }
+
+  /** A compact annotated tag, holding the object id of the object it peels to as well. */
+  private static final class PeeledTag extends CompactRef {
+    private final int p1, p2, p3, p4, p5;
+
+    PeeledTag(String name, Storage storage, AnyObjectId id, AnyObjectId peeled) {
+      super(name, storage, true, id);
+      this.p1 = word(peeled, 0);
+      this.p2 = peeled.hashCode();
+      this.p3 = word(peeled, 2);
+      this.p4 = word(peeled, 3);
+      this.p5 = word(peeled, 4);
+    }
+
+    @Override
+    public ObjectId getPeeledObjectId() {
+      return new ObjectId(p1, p2, p3, p4, p5);
+    }
+  }
+}
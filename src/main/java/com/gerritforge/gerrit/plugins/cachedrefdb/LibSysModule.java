@@ -14,8 +14,10 @@ package com.gerritforge.gerrit.plugins.cachedrefdb;
 import com.google.common.flogger.FluentLogger;
 import com.google.gerrit.extensions.events.LifecycleListener;
 import com.google.gerrit.extensions.registration.DynamicItem;
+import com.google.gerrit.extensions.registration.DynamicSet;
 import com.google.gerrit.extensions.registration.RegistrationHandle;
 import com.google.gerrit.lifecycle.LifecycleModule;
+import com.google.gerrit.server.cache.CacheRemovalListener;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
 
@@ -25,7 +27,10 @@ public class LibSysModule extends LifecycleModule {
   @Override
   protected void configure() {
     install(RefDatabaseCacheImpl.module());
+    bind(RefTreeMetrics.class).asEagerSingleton();
     listener().to(RefByNameCacheSetter.class);
+    listener().to(RefTreeWarmUp.class);
+    DynamicSet.bind(binder(), CacheRemovalListener.class).to(RefTreeRemovalListener.class);
     logger.atInfo().log("Sys library loaded");
   }
 
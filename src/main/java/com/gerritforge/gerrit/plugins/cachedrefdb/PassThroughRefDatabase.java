@@ -13,6 +13,7 @@ package com.gerritforge.gerrit.plugins.cachedrefdb;
 
 import java.io.IOException;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ExecutionException;
 import org.eclipse.jgit.lib.ObjectId;
@@ -25,6 +26,18 @@ class PassThroughRefDatabase implements RefDatabaseCache {
     return delegate.exactRef(ref);
   }
 
+  @Override
+  public Map<String, Ref> getAll(String identifier, String[] refNames, RefDatabase delegate)
+      throws IOException {
+    return delegate.exactRef(refNames);
+  }
+
+  @Override
+  public Ref getFirst(String identifier, String[] refNames, RefDatabase delegate)
+      throws IOException {
+    return delegate.firstExactRef(refNames);
+  }
+
   @Override
   public boolean containsKey(String identifier, String ref, RefDatabase delegate) {
     return false;
@@ -48,6 +61,17 @@ class PassThroughRefDatabase implements RefDatabaseCache {
     }
   }
 
+  @Override
+  public List<Ref> allByPrefixWithExclusions(
+      String projectName, String include, Set<String> excludes, RefDatabase delegate)
+      throws ExecutionException {
+    try {
+      return delegate.getRefsByPrefixWithExclusions(include, excludes);
+    } catch (IOException e) {
+      throw new ExecutionException(e);
+    }
+  }
+
   @Override
   public List<Ref> all(String projectName, RefDatabase delegate) throws ExecutionException {
     try {
@@ -0,0 +1,637 @@
+// Copyright (C) 2026 GerritForge, Inc.
+//
+// Licensed under the BSL 1.1 (the "License");
+// you may not use this file except in compliance with the License.
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.gerritforge.gerrit.plugins.cachedrefdb;
+
+import com.google.common.collect.AbstractIterator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import org.eclipse.jgit.annotations.Nullable;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+
+/**
+ * A persistent (immutable, structurally shared) ternary search tree of {@link Ref}s keyed by ref
+ * name.
+ *
+ * <p>The current root is published through an {@link AtomicReference}: readers never lock and
+ * always see a consistent snapshot of the tree, while writers copy only the nodes on the path to
+ * the modified key and swap the root. Writers are serialized among themselves.
+ *
+ * <p>The {@link ObjectId} index is kept in an {@link ObjectIdIndex} guarded by its own read-write
+ * lock, which is updated right after the new root is published; a {@link
+ * #getByObjectId(ObjectId)} running concurrently with a write may therefore not yet reflect it.
+ *
+ * <p>This class is thread safe.
+ */
+public class PersistentRefTree implements RefTree {
+
+  private static final Snapshot EMPTY = new Snapshot(null, 0, 0, 0);
+
+  /** A node: header, char, value and three children. */
+  private static final long NODE_BYTES = 32;
+
+  /** Entry of a ref in the object id index, as measured on a 1M refs tree. */
+  private static final long INDEX_BYTES_PER_REF = 8;
+
+  private static final byte LO = 0;
+  private static final byte EQ = 1;
+  private static final byte HI = 2;
+
+  private static final class Node {
+    final char c;
+    final Node lo, eq, hi;
+    final Ref val;
+
+    Node(char c, Node lo, Node eq, Node hi, Ref val) {
+      this.c = c;
+      this.lo = lo;
+      this.eq = eq;
+      this.hi = hi;
+      this.val = val;
+    }
+
+    Node with(byte dir, Node child) {
+      switch (dir) {
+        case LO:
+          return new Node(c, child, eq, hi, val);
+        case EQ:
+          return new Node(c, lo, child, hi, val);
+        default:
+          return new Node(c, lo, eq, child, val);
+      }
+    }
+
+    Node withVal(Ref newVal) {
+      return new Node(c, lo, eq, hi, newVal);
+    }
+  }
+
+  private static final class Snapshot {
+    final Node root;
+    final int size;
+    final int nodes;
+    final long refBytes;
+
+    Snapshot(Node root, int size, int nodes, long refBytes) {
+      this.root = root;
+      this.size = size;
+      this.nodes = nodes;
+      this.refBytes = refBytes;
+    }
+  }
+
+  /** Nodes visited from the root down to a key, with the direction taken from each of them. */
+  private static final class Path {
+    Node[] nodes = new Node[64];
+    byte[] dirs = new byte[64];
+    int size;
+
+    void add(Node node, byte dir) {
+      if (size == nodes.length) {
+        nodes = Arrays.copyOf(nodes, size * 2);
+        dirs = Arrays.copyOf(dirs, size * 2);
+      }
+      nodes[size] = node;
+      dirs[size++] = dir;
+    }
+  }
+
+  private final AtomicReference<Snapshot> snapshot = new AtomicReference<>(EMPTY);
+  private final ObjectIdIndex byObjectId = new ObjectIdIndex();
+  private final ReadWriteLock indexLock = new ReentrantReadWriteLock();
+  private final Object writeLock = new Object();
+
+  @Override
+  @Nullable
+  public Ref get(String refName) {
+    validateKey(refName);
+    Node node = find(snapshot.get().root, refName);
+    return node != null ? node.val : null;
+  }
+
+  @Override
+  public Map<String, Ref> getAll(String... refNames) {
+    Node root = snapshot.get().root;
+    Map<String, Ref> refs = new LinkedHashMap<>();
+    for (String refName : refNames) {
+      validateKey(refName);
+      Node node = find(root, refName);
+      if (node != null && node.val != null) {
+        refs.put(refName, node.val);
+      }
+    }
+    return refs;
+  }
+
+  @Override
+  @Nullable
+  public Ref getFirst(String... refNames) {
+    Node root = snapshot.get().root;
+    for (String refName : refNames) {
+      validateKey(refName);
+      Node node = find(root, refName);
+      if (node != null && node.val != null) {
+        return node.val;
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public boolean contains(String refName) {
+    return get(refName) != null;
+  }
+
+  @Override
+  public int insert(String refName, Ref ref) {
+    TernarySearchTree.validateValue(ref);
+    validateKey(refName);
+    synchronized (writeLock) {
+      Snapshot current = snapshot.get();
+      Ref old = get(refName);
+      Snapshot updated = put(current, refName, ref, old == null ? 1 : 0);
+      snapshot.set(updated);
+      updateIndex(Collections.singletonList(old), Collections.singletonList(ref));
+      return updated.size;
+    }
+  }
+
+  @Override
+  public int delete(String refName) {
+    validateKey(refName);
+    synchronized (writeLock) {
+      Snapshot current = snapshot.get();
+      Ref old = get(refName);
+      if (old == null) {
+        return current.size;
+      }
+      Snapshot updated = remove(current, refName);
+      snapshot.set(updated);
+      updateIndex(Collections.singletonList(old), Collections.emptyList());
+      return updated.size;
+    }
+  }
+
+  @Override
+  public void rename(String srcRefName, Ref destRef) {
+    TernarySearchTree.validateValue(destRef);
+    validateKey(srcRefName);
+    String destRefName = destRef.getName();
+    validateKey(destRefName);
+    synchronized (writeLock) {
+      Snapshot updated = snapshot.get();
+      Ref oldSrc = get(srcRefName);
+      if (oldSrc != null) {
+        updated = remove(updated, srcRefName);
+      }
+      Node oldDestNode = find(updated.root, destRefName);
+      Ref oldDest = oldDestNode != null ? oldDestNode.val : null;
+      snapshot.set(put(updated, destRefName, destRef, oldDest == null ? 1 : 0));
+      updateIndex(Arrays.asList(oldSrc, oldDest), Collections.singletonList(destRef));
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>All changes are published with a single new root. As for a single update, the object id
+   * index is updated right after.
+   */
+  @Override
+  public int apply(Map<String, Ref> updated, Collection<String> deleted) {
+    deleted.forEach(PersistentRefTree::validateKey);
+    updated.forEach(
+        (refName, ref) -> {
+          validateKey(refName);
+          TernarySearchTree.validateValue(ref);
+        });
+    synchronized (writeLock) {
+      Snapshot next = snapshot.get();
+      List<Ref> replaced = new ArrayList<>();
+      for (String refName : deleted) {
+        Node node = find(next.root, refName);
+        if (node != null && node.val != null) {
+          replaced.add(node.val);
+          next = remove(next, refName);
+        }
+      }
+      for (Map.Entry<String, Ref> entry : updated.entrySet()) {
+        Node node = find(next.root, entry.getKey());
+        Ref old = node != null ? node.val : null;
+        if (old != null) {
+          replaced.add(old);
+        }
+        next = put(next, entry.getKey(), entry.getValue(), old == null ? 1 : 0);
+      }
+      snapshot.set(next);
+      updateIndex(replaced, updated.values());
+      return next.size;
+    }
+  }
+
+  @Override
+  public List<Ref> getValuesWithPrefix(String prefix) {
+    List<Ref> values = new ArrayList<>();
+    if (prefix == null) {
+      return values;
+    }
+    Node root = snapshot.get().root;
+    if (prefix.isEmpty()) {
+      collect(root, values);
+      return values;
+    }
+    Node node = find(root, prefix);
+    if (node != null) {
+      if (node.val != null) {
+        values.add(node.val);
+      }
+      collect(node.eq, values);
+    }
+    return values;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>The refs are read from the snapshot of the tree taken when this method is called.
+   */
+  @Override
+  public List<Ref> getValuesWithPrefixes(Collection<String> prefixes) {
+    List<String> distinct = RefTree.distinctPrefixes(prefixes);
+    List<Ref> values = new ArrayList<>();
+    Node root = snapshot.get().root;
+    for (String prefix : distinct) {
+      if (prefix.isEmpty()) {
+        collect(root, values);
+        continue;
+      }
+      Node node = find(root, prefix);
+      if (node != null) {
+        if (node.val != null) {
+          values.add(node.val);
+        }
+        collect(node.eq, values);
+      }
+    }
+    return values;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>The refs are read from the snapshot of the tree taken when this method is called. The walk
+   * tracks the name of each node, and does not descend below the node of an excluded prefix.
+   */
+  @Override
+  public List<Ref> getValuesWithPrefixExcluding(String prefix, Collection<String> excludes) {
+    List<Ref> values = new ArrayList<>();
+    String[] skipped = prefix != null ? RefTree.excludedBelow(prefix, excludes) : null;
+    if (skipped == null) {
+      return values;
+    }
+    Node start = snapshot.get().root;
+    if (!prefix.isEmpty()) {
+      Node node = find(start, prefix);
+      if (node == null) {
+        return values;
+      }
+      if (node.val != null) {
+        values.add(node.val);
+      }
+      start = node.eq;
+    }
+    if (start == null) {
+      return values;
+    }
+    Node[] stack = new Node[64];
+    int[] depth = new int[64];
+    boolean[] visit = new boolean[64];
+    int top = 0;
+    stack[top] = start;
+    depth[top++] = prefix.length();
+    StringBuilder name = new StringBuilder(prefix);
+    while (top > 0) {
+      Node node = stack[--top];
+      int d = depth[top];
+      if (visit[top]) {
+        visit[top] = false;
+        name.setLength(d);
+        name.append(node.c);
+        if (isSkipped(name, skipped)) {
+          continue;
+        }
+        if (node.val != null) {
+          values.add(node.val);
+        }
+        if (node.eq != null) {
+          stack[top] = node.eq;
+          depth[top++] = d + 1;
+        }
+        continue;
+      }
+      if (top + 3 > stack.length) {
+        stack = Arrays.copyOf(stack, stack.length * 2);
+        depth = Arrays.copyOf(depth, stack.length);
+        visit = Arrays.copyOf(visit, stack.length);
+      }
+      if (node.hi != null) {
+        stack[top] = node.hi;
+        depth[top++] = d;
+      }
+      stack[top] = node;
+      depth[top] = d;
+      visit[top++] = true;
+      if (node.lo != null) {
+        stack[top] = node.lo;
+        depth[top++] = d;
+      }
+    }
+    return values;
+  }
+
+  /** Whether {@code name} is one of the {@code skipped} prefixes. */
+  private static boolean isSkipped(StringBuilder name, String[] skipped) {
+    for (String s : skipped) {
+      if (s.length() == name.length() && s.contentEquals(name)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public List<Ref> getAllValues() {
+    return getValuesWithPrefix("");
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>The refs are read from the snapshot of the tree taken when this method is called.
+   */
+  @Override
+  public boolean visitWithPrefix(String prefix, RefVisitor visitor) {
+    if (prefix == null) {
+      return true;
+    }
+    Node node = snapshot.get().root;
+    if (!prefix.isEmpty()) {
+      node = find(node, prefix);
+      if (node == null) {
+        return true;
+      }
+      if (node.val != null && !visitor.visit(node.val)) {
+        return false;
+      }
+      node = node.eq;
+    }
+    for (Values values = new Values(node); values.hasNext(); ) {
+      if (!visitor.visit(values.next())) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public boolean visitByObjectId(ObjectId objectId, RefVisitor visitor) {
+    indexLock.readLock().lock();
+    try {
+      return byObjectId.visit(objectId, visitor);
+    } finally {
+      indexLock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public int size() {
+    return snapshot.get().size;
+  }
+
+  @Override
+  public int nodeCount() {
+    return snapshot.get().nodes;
+  }
+
+  @Override
+  public long estimatedBytes() {
+    Snapshot current = snapshot.get();
+    return current.nodes * NODE_BYTES + current.size * INDEX_BYTES_PER_REF + current.refBytes;
+  }
+
+  private static void validateKey(String key) {
+    if (key == null || key.isEmpty()) {
+      throw new IllegalArgumentException("ref name must not be empty");
+    }
+  }
+
+  /** Find the node holding the last character of {@code key}, or {@code null}. */
+  @Nullable
+  private static Node find(Node root, String key) {
+    Node node = root;
+    int i = 0;
+    while (node != null) {
+      char c = key.charAt(i);
+      if (c < node.c) {
+        node = node.lo;
+      } else if (c > node.c) {
+        node = node.hi;
+      } else if (++i == key.length()) {
+        return node;
+      } else {
+        node = node.eq;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Return a new snapshot where {@code key} maps to {@code ref}, sharing all untouched nodes.
+   * {@code sizeDelta} is 1 if the key is new, 0 otherwise.
+   */
+  private static Snapshot put(Snapshot current, String key, Ref ref, int sizeDelta) {
+    Path path = new Path();
+    Node node = current.root;
+    int i = 0;
+    while (node != null) {
+      char c = key.charAt(i);
+      if (c < node.c) {
+        path.add(node, LO);
+        node = node.lo;
+      } else if (c > node.c) {
+        path.add(node, HI);
+        node = node.hi;
+      } else if (i == key.length() - 1) {
+        break;
+      } else {
+        path.add(node, EQ);
+        node = node.eq;
+        i++;
+      }
+    }
+    Node child;
+    int newNodes = 0;
+    long refBytes = current.refBytes + RefSizeEstimator.refBytes(ref);
+    if (node != null) {
+      if (node.val != null) {
+        refBytes -= RefSizeEstimator.refBytes(node.val);
+      }
+      child = node.withVal(ref);
+    } else {
+      child = new Node(key.charAt(key.length() - 1), null, null, null, ref);
+      for (int j = key.length() - 2; j >= i; j--) {
+        child = new Node(key.charAt(j), null, child, null, null);
+      }
+      newNodes = key.length() - i;
+    }
+    for (int k = path.size - 1; k >= 0; k--) {
+      child = path.nodes[k].with(path.dirs[k], child);
+    }
+    return new Snapshot(child, current.size + sizeDelta, current.nodes + newNodes, refBytes);
+  }
+
+  /**
+   * Return a new snapshot without {@code key}, which must be present. Nodes which no longer lead to
+   * any value are dropped.
+   */
+  private static Snapshot remove(Snapshot current, String key) {
+    Path path = new Path();
+    Node node = current.root;
+    int i = 0;
+    while (true) {
+      char c = key.charAt(i);
+      if (c < node.c) {
+        path.add(node, LO);
+        node = node.lo;
+      } else if (c > node.c) {
+        path.add(node, HI);
+        node = node.hi;
+      } else if (i == key.length() - 1) {
+        break;
+      } else {
+        path.add(node, EQ);
+        node = node.eq;
+        i++;
+      }
+    }
+    int removedNodes = 0;
+    long refBytes = current.refBytes - RefSizeEstimator.refBytes(node.val);
+    Node cleared = node.withVal(null);
+    Node child = prune(cleared);
+    if (child != cleared) {
+      removedNodes++;
+    }
+    for (int k = path.size - 1; k >= 0; k--) {
+      Node parent = path.nodes[k].with(path.dirs[k], child);
+      child = parent;
+      if (path.dirs[k] == EQ) {
+        child = prune(parent);
+        if (child != parent) {
+          removedNodes++;
+        }
+      }
+    }
+    return new Snapshot(child, current.size - 1, current.nodes - removedNodes, refBytes);
+  }
+
+  /** Drop {@code node} if neither it nor its middle subtree hold a value. */
+  @Nullable
+  private static Node prune(Node node) {
+    if (node.val != null || node.eq != null) {
+      return node;
+    }
+    if (node.lo == null) {
+      return node.hi;
+    }
+    if (node.hi == null) {
+      return node.lo;
+    }
+    // Every key below hi sorts after every key below lo: hang hi off the rightmost node of lo.
+    Path spine = new Path();
+    for (Node n = node.lo; n != null; n = n.hi) {
+      spine.add(n, HI);
+    }
+    Node child = node.hi;
+    for (int k = spine.size - 1; k >= 0; k--) {
+      child = spine.nodes[k].with(HI, child);
+    }
+    return child;
+  }
+
+  /** Add all values below {@code start} (lo, node, eq, hi) to {@code values} in key order. */
+  private static void collect(Node start, List<Ref> values) {
+    new Values(start).forEachRemaining(values::add);
+  }
+
+  /** Iterates over the values below a node (lo, node, eq, hi) in key order. */
+  private static final class Values extends AbstractIterator<Ref> {
+    private Node[] stack = new Node[64];
+    private boolean[] visit = new boolean[64];
+    private int top;
+
+    Values(@Nullable Node start) {
+      if (start != null) {
+        stack[top++] = start;
+      }
+    }
+
+    @Override
+    protected Ref computeNext() {
+      while (top > 0) {
+        Node node = stack[--top];
+        if (visit[top]) {
+          if (node.val != null) {
+            return node.val;
+          }
+          continue;
+        }
+        if (top + 4 > stack.length) {
+          stack = Arrays.copyOf(stack, stack.length * 2);
+          visit = Arrays.copyOf(visit, visit.length * 2);
+        }
+        if (node.hi != null) {
+          visit[top] = false;
+          stack[top++] = node.hi;
+        }
+        if (node.eq != null) {
+          visit[top] = false;
+          stack[top++] = node.eq;
+        }
+        visit[top] = true;
+        stack[top++] = node;
+        if (node.lo != null) {
+          visit[top] = false;
+          stack[top++] = node.lo;
+        }
+      }
+      return endOfData();
+    }
+  }
+
+  private void updateIndex(Collection<Ref> removed, Collection<Ref> added) {
+    indexLock.writeLock().lock();
+    try {
+      removed.forEach(byObjectId::remove);
+      added.forEach(byObjectId::add);
+    } finally {
+      indexLock.writeLock().unlock();
+    }
+  }
+}
@@ -0,0 +1,45 @@
+// Copyright (C) 2026 GerritForge, Inc.
+//
+// Licensed under the BSL 1.1 (the "License");
+// you may not use this file except in compliance with the License.
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.gerritforge.gerrit.plugins.cachedrefdb;
+
+import java.util.List;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+/**
+ * Project name patterns of the configuration, see {@link CachedRefDbConfig#getWarmUpProjects()}
+ * and {@link CachedRefDbConfig#getExcludedProjects()}.
+ */
+final class ProjectPatterns {
+
+  /**
+   * Match project names against a pattern: a regular expression if it starts with {@code ^}, a
+   * prefix if it ends with {@code *}, an exact name otherwise.
+   */
+  static Predicate<String> matcher(String pattern) {
+    if (pattern.startsWith("^")) {
+      return Pattern.compile(pattern).asMatchPredicate();
+    }
+    if (pattern.endsWith("*")) {
+      String prefix = pattern.substring(0, pattern.length() - 1);
+      return name -> name.startsWith(prefix);
+    }
+    return pattern::equals;
+  }
+
+  /** Match project names against any of the patterns, none if there are none. */
+  static Predicate<String> anyOf(List<String> patterns) {
+    return patterns.stream().map(ProjectPatterns::matcher).reduce(p -> false, Predicate::or);
+  }
+
+  private ProjectPatterns() {}
+}
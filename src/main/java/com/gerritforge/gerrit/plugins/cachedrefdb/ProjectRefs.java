@@ -0,0 +1,305 @@
+// Copyright (C) 2026 GerritForge, Inc.
+//
+// Licensed under the BSL 1.1 (the "License");
+// you may not use this file except in compliance with the License.
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.gerritforge.gerrit.plugins.cachedrefdb;
+
+import static java.util.Objects.requireNonNull;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import org.eclipse.jgit.annotations.Nullable;
+import org.eclipse.jgit.lib.Ref;
+
+/**
+ * The refs of a project as held in the {@code ref_names_by_project} cache, along with the {@link
+ * RefsFingerprint} of the refs on disk they were loaded from, or last updated to.
+ *
+ * <p>An entry is either loaded, holding the {@link RefTree} served to callers, or restored from
+ * the persistent cache after a restart, holding only the list of refs: a restored entry must be
+ * checked against the current fingerprint of the refs on disk, and its tree built, before use.
+ *
+ * <p>A loaded entry can also be stale: its refs keep being served and updated while they are
+ * reconciled with the refs on disk. The names of the refs updated meanwhile are recorded, so that
+ * they can be read again once reconciled, before the entry is replaced by an up to date one, see
+ * {@link #retire}.
+ */
+final class ProjectRefs {
+  /** A {@code List} entry, per ref. */
+  private static final long LIST_BYTES_PER_REF = 4;
+
+  /** Fraction of its weight by which the estimated size of an entry must move to reweigh it. */
+  private static final long REWEIGH_FRACTION = 16;
+
+  /** Reads the refs updated in a stale entry again, and swaps in its replacement. */
+  interface Replacement {
+    void swap(Set<String> updatedRefNames) throws IOException;
+  }
+
+  private static final class Stale {
+    final long sinceNanos = System.nanoTime();
+    final ReadWriteLock lock = new ReentrantReadWriteLock();
+    final Set<String> updatedRefNames = ConcurrentHashMap.newKeySet();
+    final AtomicBoolean reloading = new AtomicBoolean();
+    boolean retired;
+  }
+
+  private volatile RefsFingerprint fingerprint;
+  @Nullable private final RefTree tree;
+  @Nullable private final List<Ref> restoredRefs;
+  @Nullable private final Stale stale;
+  private final AtomicLong checkedNanos = new AtomicLong(System.nanoTime());
+  private volatile long weighedBytes;
+  private volatile boolean discarded;
+  private volatile boolean updatedSinceFingerprint;
+
+  private ProjectRefs(
+      RefsFingerprint fingerprint,
+      @Nullable RefTree tree,
+      @Nullable List<Ref> restoredRefs,
+      @Nullable Stale stale) {
+    this.fingerprint = fingerprint;
+    this.tree = tree;
+    this.restoredRefs = restoredRefs;
+    this.stale = stale;
+  }
+
+  /**
+   * Create an entry for refs just loaded from the repository.
+   *
+   * @param fingerprint fingerprint of the refs on disk taken before loading them
+   * @param tree the loaded refs
+   * @return the entry
+   */
+  static ProjectRefs loaded(RefsFingerprint fingerprint, RefTree tree) {
+    return new ProjectRefs(fingerprint, requireNonNull(tree), null, null);
+  }
+
+  /**
+   * Create an entry for refs restored from the persistent cache.
+   *
+   * @param fingerprint fingerprint of the refs on disk they were loaded from
+   * @param refs the refs, sorted by name
+   * @return the entry
+   */
+  static ProjectRefs restored(RefsFingerprint fingerprint, List<Ref> refs) {
+    return new ProjectRefs(fingerprint, null, requireNonNull(refs), null);
+  }
+
+  /**
+   * Create a stale entry serving the same tree.
+   *
+   * @return the stale entry
+   */
+  ProjectRefs toStale() {
+    return new ProjectRefs(fingerprint, tree(), null, new Stale());
+  }
+
+  RefsFingerprint fingerprint() {
+    return fingerprint;
+  }
+
+  /**
+   * Adopt the current fingerprint of the refs on disk if they were updated through this entry since
+   * its fingerprint was taken: they then differ because of these updates, unless changed elsewhere
+   * meanwhile, which is only detected by a later check.
+   *
+   * @param current fingerprint of the refs on disk, taken after the updates
+   * @return {@code true} if the fingerprint was adopted
+   */
+  boolean adoptFingerprint(RefsFingerprint current) {
+    // An update within the racy window of the current fingerprint leaves it unknown.
+    if (!updatedSinceFingerprint || current == RefsFingerprint.UNKNOWN) {
+      return false;
+    }
+    updatedSinceFingerprint = false;
+    fingerprint = current;
+    return true;
+  }
+
+  boolean isRestored() {
+    return tree == null;
+  }
+
+  boolean isStale() {
+    return stale != null;
+  }
+
+  /**
+   * Mark the entry as deliberately removed from the cache, so that it is not served stale while
+   * reloaded, see {@link RefDatabaseCacheImpl#keepServingStale}.
+   */
+  void discard() {
+    discarded = true;
+  }
+
+  boolean isDiscarded() {
+    return discarded;
+  }
+
+  /**
+   * Check whether the entry has been stale for longer than {@code maxStaleness}.
+   *
+   * @param maxStaleness maximum staleness
+   * @return whether the entry is stale for longer than that
+   */
+  boolean isStaleLongerThan(Duration maxStaleness) {
+    return stale != null && System.nanoTime() - stale.sinceNanos > maxStaleness.toNanos();
+  }
+
+  /**
+   * Claim the check of the entry against the refs on disk, see {@link
+   * CachedRefDbConfig#getCheckInterval()}. Only one caller gets to check it per interval.
+   *
+   * @param interval minimum time between two checks, since the entry was created
+   * @return {@code true} if the caller must check the entry
+   */
+  boolean claimCheck(Duration interval) {
+    long checked = checkedNanos.get();
+    long now = System.nanoTime();
+    return now - checked > interval.toNanos() && checkedNanos.compareAndSet(checked, now);
+  }
+
+  /**
+   * Mark the reload of a stale entry as started.
+   *
+   * @return {@code false} if it was already started
+   */
+  boolean startReload() {
+    return stale != null && stale.reloading.compareAndSet(false, true);
+  }
+
+  /** Allow the reload of a stale entry to be started again after a failure. */
+  void reloadFailed() {
+    stale.reloading.set(false);
+  }
+
+  /**
+   * Apply an update to the tree. A stale entry records the names of the updated refs.
+   *
+   * @param update the update
+   * @param refNames names of the refs changed by the update
+   * @return {@code false} if the entry is stale and was already replaced, in which case the update
+   *     must be applied to the replacement instead
+   */
+  boolean update(Consumer<RefTree> update, String... refNames) {
+    if (stale == null) {
+      update.accept(tree());
+      updatedSinceFingerprint = true;
+      return true;
+    }
+    stale.lock.readLock().lock();
+    try {
+      if (stale.retired) {
+        return false;
+      }
+      update.accept(tree());
+      stale.updatedRefNames.addAll(Arrays.asList(refNames));
+      return true;
+    } finally {
+      stale.lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Replace a stale entry: no update is applied to it while {@code replacement} runs, nor after it
+   * succeeded.
+   *
+   * @param replacement reads the refs updated in this entry again and swaps in its replacement
+   * @throws IOException if the replacement failed, this entry is then still in use
+   */
+  void retire(Replacement replacement) throws IOException {
+    stale.lock.writeLock().lock();
+    try {
+      replacement.swap(stale.updatedRefNames);
+      stale.retired = true;
+    } finally {
+      stale.lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Get the tree of a loaded entry.
+   *
+   * @return the tree
+   * @throws IllegalStateException if the entry was restored and not checked yet
+   */
+  RefTree tree() {
+    if (tree == null) {
+      throw new IllegalStateException("restored refs must be checked before use");
+    }
+    return tree;
+  }
+
+  /**
+   * Check whether the entry holds all refs of the project: a lazily loaded tree may only hold some
+   * of its namespaces, see {@link ShardedRefTree#lazy}.
+   *
+   * @return whether all refs are held
+   */
+  boolean isComplete() {
+    return !(tree instanceof ShardedRefTree) || ((ShardedRefTree) tree).isFullyLoaded();
+  }
+
+  /**
+   * Get all refs of the entry, sorted by name.
+   *
+   * @return the refs
+   */
+  List<Ref> refs() {
+    return tree != null ? tree.getAllValues() : restoredRefs;
+  }
+
+  /**
+   * Record the estimated size the entry was weighed at when stored in the cache, see {@link
+   * RefTreeWeigher}.
+   *
+   * @param bytes estimated size in bytes
+   */
+  void weighed(long bytes) {
+    weighedBytes = bytes;
+  }
+
+  /**
+   * Check whether the estimated size of the entry moved by more than a sixteenth from the size it
+   * was weighed at: storing it again for every ref update would weigh it on every push.
+   *
+   * @return whether the entry should be stored again to be reweighed
+   */
+  boolean needsReweigh() {
+    long weighed = weighedBytes;
+    return Math.abs(estimatedBytes() - weighed) > weighed / REWEIGH_FRACTION;
+  }
+
+  /**
+   * Estimate the heap retained by the entry, see {@link RefTree#estimatedBytes()}.
+   *
+   * @return estimated size in bytes
+   */
+  long estimatedBytes() {
+    if (tree != null) {
+      return tree.estimatedBytes();
+    }
+    long bytes = 0;
+    for (Ref ref : restoredRefs) {
+      bytes += LIST_BYTES_PER_REF + RefSizeEstimator.refBytes(ref);
+    }
+    return bytes;
+  }
+}
@@ -12,16 +12,57 @@
 package com.gerritforge.gerrit.plugins.cachedrefdb;
 
 import java.io.IOException;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ExecutionException;
+import java.util.stream.Collectors;
+import org.eclipse.jgit.annotations.Nullable;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.Ref;
 import org.eclipse.jgit.lib.RefDatabase;
+import org.eclipse.jgit.transport.ReceiveCommand;
 
 interface RefDatabaseCache {
   Ref get(String identifier, String ref, RefDatabase delegate) throws IOException;
 
+  /**
+   * Get the refs with the given names, see {@link RefDatabase#exactRef(String...)}.
+   * Implementations should read them at once.
+   *
+   * @return the refs found, keyed by name
+   */
+  default Map<String, Ref> getAll(String identifier, String[] refNames, RefDatabase delegate)
+      throws IOException {
+    Map<String, Ref> refs = new LinkedHashMap<>();
+    for (String refName : refNames) {
+      Ref ref = get(identifier, refName, delegate);
+      if (ref != null) {
+        refs.put(refName, ref);
+      }
+    }
+    return refs;
+  }
+
+  /**
+   * Get the first of the given refs which exists, see {@link RefDatabase#firstExactRef(String...)}.
+   * Implementations should read them at once.
+   *
+   * @return the first ref found, or {@code null} if none of them exists
+   */
+  @Nullable
+  default Ref getFirst(String identifier, String[] refNames, RefDatabase delegate)
+      throws IOException {
+    for (String refName : refNames) {
+      Ref ref = get(identifier, refName, delegate);
+      if (ref != null) {
+        return ref;
+      }
+    }
+    return null;
+  }
+
   boolean containsKey(String project, String ref, RefDatabase delegate);
 
   void put(String project, Ref ref, RefDatabase delegate) throws IOException;
@@ -31,13 +72,75 @@ interface RefDatabaseCache {
   List<Ref> allByPrefixes(String identifier, String[] prefixes, RefDatabase delegate)
       throws ExecutionException;
 
+  /**
+   * Get the refs starting with {@code include} and none of {@code excludes}, see {@link
+   * RefDatabase#getRefsByPrefixWithExclusions}. Implementations should skip the excluded refs
+   * rather than read them and filter them out.
+   */
+  default List<Ref> allByPrefixWithExclusions(
+      String identifier, String include, Set<String> excludes, RefDatabase delegate)
+      throws ExecutionException {
+    return allByPrefixes(identifier, new String[] {include}, delegate).stream()
+        .filter(ref -> excludes.stream().noneMatch(ref.getName()::startsWith))
+        .collect(Collectors.toList());
+  }
+
   List<Ref> all(String identifier, RefDatabase delegate) throws ExecutionException;
 
+  /**
+   * Check whether the project has any ref, see {@link RefDatabase#hasRefs()}. Implementations
+   * should stop at the first ref found rather than list them all.
+   */
+  default boolean hasRefs(String identifier, RefDatabase delegate) throws ExecutionException {
+    try {
+      return delegate.hasRefs();
+    } catch (IOException e) {
+      throw new ExecutionException(e);
+    }
+  }
+
   void renameRef(String project, Ref srcRef, Ref destRef, RefDatabase delegate)
       throws ExecutionException;
 
   void updateRef(String identifier, String refName, RefDatabase delete) throws IOException;
 
+  /**
+   * Update a ref to the object id a successful update just set it to, sparing a read of the ref
+   * from the ref database when the resulting ref is known.
+   *
+   * @param newId new object id of the ref, {@code null} if unknown, e.g. for a symbolic ref
+   */
+  default void updateRef(
+      String identifier, String refName, @Nullable ObjectId newId, RefDatabase delegate)
+      throws IOException {
+    updateRef(identifier, refName, delegate);
+  }
+
+  /**
+   * Apply the successful commands of a batch ref update. Implementations should apply them at
+   * once, so that readers don't see part of an atomic batch.
+   *
+   * @param commands successful commands
+   */
+  default void updateRefs(String identifier, List<ReceiveCommand> commands, RefDatabase delegate)
+      throws IOException {
+    try {
+      for (ReceiveCommand cmd : commands) {
+        if (cmd.getType() == ReceiveCommand.Type.DELETE) {
+          evict(identifier, cmd.getRefName(), delegate);
+        } else {
+          updateRef(
+              identifier,
+              cmd.getRefName(),
+              cmd.getNewSymref() == null ? cmd.getNewId() : null,
+              delegate);
+        }
+      }
+    } catch (ExecutionException e) {
+      throw new IOException(e);
+    }
+  }
+
   Set<Ref> getRefsByObjectId(String projectName, ObjectId id, RefDatabase delegate)
       throws ExecutionException;
 
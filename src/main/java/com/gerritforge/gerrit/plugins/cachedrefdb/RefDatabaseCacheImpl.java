@@ -14,71 +14,179 @@ package com.gerritforge.gerrit.plugins.cachedrefdb;
 import com.google.common.cache.Cache;
 import com.google.common.collect.ImmutableList;
 import com.google.common.flogger.FluentLogger;
+import com.google.gerrit.entities.RefNames;
 import com.google.gerrit.server.cache.CacheModule;
+import com.google.gerrit.server.cache.serialize.StringCacheSerializer;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
 import com.google.inject.TypeLiteral;
 import com.google.inject.name.Named;
 import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.atomic.AtomicReference;
-import java.util.concurrent.locks.Lock;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import org.eclipse.jgit.annotations.Nullable;
+import org.eclipse.jgit.internal.storage.file.RefDirectory;
 import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectIdRef;
 import org.eclipse.jgit.lib.Ref;
 import org.eclipse.jgit.lib.RefDatabase;
+import org.eclipse.jgit.transport.ReceiveCommand;
 
 @Singleton
 class RefDatabaseCacheImpl implements RefDatabaseCache {
   private static final FluentLogger logger = FluentLogger.forEnclosingClass();
-  private static final String REF_NAMES_BY_PROJECT = "ref_names_by_project";
+  static final String REF_NAMES_BY_PROJECT = "ref_names_by_project";
+  static final long DEFAULT_MEMORY_LIMIT = 1L << 30;
+  static final long DEFAULT_DISK_LIMIT = 1L << 30;
 
   static com.google.inject.Module module() {
     return new CacheModule() {
       @Override
       protected void configure() {
-        cache(REF_NAMES_BY_PROJECT, String.class, new TypeLiteral<RefTernarySearchTree>() {});
+        persist(REF_NAMES_BY_PROJECT, String.class, new TypeLiteral<ProjectRefs>() {})
+            .version(1)
+            .keySerializer(StringCacheSerializer.INSTANCE)
+            .valueSerializer(ProjectRefsSerializer.INSTANCE)
+            .diskLimit(DEFAULT_DISK_LIMIT)
+            .weigher(RefTreeWeigher.class)
+            .maximumWeight(DEFAULT_MEMORY_LIMIT);
       }
     };
   }
 
-  private final Cache<String, RefTernarySearchTree> refNamesByProject;
+  private final Cache<String, ProjectRefs> refNamesByProject;
+  private final CachedRefDbConfig config;
+  private final RefsFingerprinter fingerprinter;
+  private final RefTreeReloader reloader;
+  private final CachePolicy policy;
+  private final Map<String, LongAdder> accesses = new ConcurrentHashMap<>();
 
   @Inject
   RefDatabaseCacheImpl(
-      @Named(REF_NAMES_BY_PROJECT) Cache<String, RefTernarySearchTree> refNamesByProject) {
+      @Named(REF_NAMES_BY_PROJECT) Cache<String, ProjectRefs> refNamesByProject,
+      CachedRefDbConfig config,
+      RefsFingerprinter fingerprinter,
+      RefTreeReloader reloader,
+      CachePolicy policy) {
     this.refNamesByProject = refNamesByProject;
+    this.config = config;
+    this.fingerprinter = fingerprinter;
+    this.reloader = reloader;
+    this.policy = policy;
   }
 
   static class RefNamesByProjectLoader {
 
-    static RefTernarySearchTree load(RefDatabase refDatabaseDelegate) throws IOException {
-
-      RefTernarySearchTree tree = new RefTernarySearchTree();
-      for (Ref ref : refDatabaseDelegate.getRefs()) {
-        tree.insert(ref.getName(), ref);
+    static ProjectRefs load(
+        String project,
+        RefDatabase refDatabaseDelegate,
+        CachedRefDbConfig config,
+        RefsFingerprinter fingerprinter,
+        CachePolicy policy)
+        throws IOException {
+      RefsFingerprint fingerprint = fingerprint(project, config, fingerprinter);
+      if (config.isLazyLoading()) {
+        return ProjectRefs.loaded(fingerprint, ShardedRefTree.lazy(config.getTreeType()));
       }
-      return tree;
+      List<Ref> refs =
+          compact(
+              policy.cachedRefs(refDatabaseDelegate.getRefs()),
+              config,
+              refDatabaseDelegate.hasVersioning());
+      return ProjectRefs.loaded(fingerprint, build(refs, config));
+    }
+
+    static RefsFingerprint fingerprint(
+        String project, CachedRefDbConfig config, RefsFingerprinter fingerprinter) {
+      // Fingerprint before listing: a ref updated meanwhile makes it stale, never the refs.
+      return config.isFingerprintRefs()
+          ? fingerprinter.fingerprint(project)
+          : RefsFingerprint.UNKNOWN;
+    }
+
+    static RefTree build(List<Ref> refs, CachedRefDbConfig config) {
+      RefTreeType treeType = config.getTreeType();
+      return config.isShardByNamespace()
+          ? ShardedRefTree.build(treeType, refs)
+          : treeType.build(refs);
     }
   }
 
   @Override
-  public Ref get(String project, String ref, RefDatabase delegate) {
+  public Ref get(String project, String ref, RefDatabase delegate) throws IOException {
+    if (!policy.route(project, ref)) {
+      return delegate.exactRef(ref);
+    }
     try {
-      return refNamesByProject.get(project, getLoader(delegate)).get(ref);
+      return refs(project, delegate, ref).get(ref);
     } catch (ExecutionException e) {
       logger.atSevere().withCause(e).log("Getting ref for [%s, %s] failed.", project, ref);
       throw new IllegalStateException(e);
     }
   }
 
+  /**
+   * {@inheritDoc}
+   *
+   * <p>The refs are read from the tree at once, see {@link RefTree#getAll}.
+   */
+  @Override
+  public Map<String, Ref> getAll(String project, String[] refNames, RefDatabase delegate)
+      throws IOException {
+    if (!policy.route(project, refNames)) {
+      return delegate.exactRef(refNames);
+    }
+    try {
+      return refs(project, delegate, refNames).getAll(refNames);
+    } catch (ExecutionException e) {
+      logger.atSevere().withCause(e).log(
+          "Getting refs for [%s, %s] failed.", project, Arrays.toString(refNames));
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>The refs are read from the tree at once, see {@link RefTree#getFirst}.
+   */
+  @Override
+  @Nullable
+  public Ref getFirst(String project, String[] refNames, RefDatabase delegate)
+      throws IOException {
+    if (!policy.route(project, refNames)) {
+      return delegate.firstExactRef(refNames);
+    }
+    try {
+      return refs(project, delegate, refNames).getFirst(refNames);
+    } catch (ExecutionException e) {
+      logger.atSevere().withCause(e).log(
+          "Getting first ref for [%s, %s] failed.", project, Arrays.toString(refNames));
+      throw new IllegalStateException(e);
+    }
+  }
+
   @Override
   public boolean containsKey(String project, String ref, RefDatabase delegate) {
+    if (!policy.route(project, ref)) {
+      return false;
+    }
     try {
-      return refNamesByProject.get(project, getLoader(delegate)).contains(ref);
+      return refs(project, delegate, ref).contains(ref);
     } catch (ExecutionException e) {
       logger.atSevere().withCause(e).log(
           "Checking ref existence for [%s, %s] failed.", project, ref);
@@ -89,56 +197,539 @@ class RefDatabaseCacheImpl implements RefDatabaseCache {
   @Override
   public List<Ref> allByPrefixes(String projectName, String[] prefixes, RefDatabase delegate)
       throws ExecutionException {
-    RefTernarySearchTree projectRefs = refNamesByProject.get(projectName, getLoader(delegate));
-    AtomicReference<String> lastPrefix = new AtomicReference<>();
-    ImmutableList.Builder<Ref> refs = ImmutableList.builder();
-    Arrays.stream(prefixes)
-        .sorted()
-        .filter(prefix -> !isDuplicated(prefix, lastPrefix))
-        .map(projectRefs::getValuesWithPrefix)
-        .forEach(refs::addAll);
-    return refs.build();
+    if (!policy.route(projectName, prefixes)) {
+      return delegateRefs(delegate, prefixes);
+    }
+    // The tree already returns a new list, there is no need to copy it again.
+    return Collections.unmodifiableList(
+        refs(projectName, delegate, prefixes).getValuesWithPrefixes(Arrays.asList(prefixes)));
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>The excluded refs are skipped by the tree, see {@link RefTree#getValuesWithPrefixExcluding}.
+   */
+  @Override
+  public List<Ref> allByPrefixWithExclusions(
+      String projectName, String include, Set<String> excludes, RefDatabase delegate)
+      throws ExecutionException {
+    if (!policy.route(projectName, include)) {
+      try {
+        return delegate.getRefsByPrefixWithExclusions(include, excludes);
+      } catch (IOException e) {
+        throw new ExecutionException(e);
+      }
+    }
+    return Collections.unmodifiableList(
+        refs(projectName, delegate, include).getValuesWithPrefixExcluding(include, excludes));
   }
 
-  private static Callable<RefTernarySearchTree> getLoader(RefDatabase delegate) {
-    return () -> RefNamesByProjectLoader.load(delegate);
+  private static List<Ref> delegateRefs(RefDatabase delegate, String... prefixes)
+      throws ExecutionException {
+    try {
+      return delegate.getRefsByPrefix(prefixes);
+    } catch (IOException e) {
+      throw new ExecutionException(e);
+    }
   }
 
-  private static boolean isDuplicated(String prefix, AtomicReference<String> lastPrefix) {
-    if (lastPrefix.get() != null && prefix.contains(lastPrefix.get())) {
-      return true;
-    } else {
-      lastPrefix.set(prefix);
+  /**
+   * Get the refs of a project to read the refs starting with one of {@code prefixes}.
+   *
+   * @param projectName project name
+   * @param delegate ref database of the project
+   * @param prefixes ref name prefixes, or full ref names, about to be read
+   * @return the refs of the project
+   * @throws ExecutionException if the refs cannot be loaded
+   */
+  private RefTree refs(String projectName, RefDatabase delegate, String... prefixes)
+      throws ExecutionException {
+    ProjectRefs projectRefs = projectRefs(projectName, delegate);
+    loadNamespaces(projectName, projectRefs, delegate, prefixes);
+    if (projectRefs.isStale()) {
+      reloader.staleRead();
+    }
+    RefTree tree = projectRefs.tree();
+    if (!policy.checkRefCount(projectName, tree.size())) {
+      // Still serve this call, the next ones go to the ref database.
+      discard(projectName, projectRefs);
+    }
+    return tree;
+  }
+
+  /**
+   * Load the namespaces of a lazily loaded tree which may hold refs starting with one of {@code
+   * prefixes}, if not loaded yet, see {@link ShardedRefTree#lazy}.
+   */
+  private void loadNamespaces(
+      String projectName, ProjectRefs projectRefs, RefDatabase delegate, String... prefixes)
+      throws ExecutionException {
+    RefTree tree = projectRefs.tree();
+    if (!(tree instanceof ShardedRefTree)) {
+      return;
+    }
+    try {
+      if (((ShardedRefTree) tree)
+          .load(
+              Arrays.asList(prefixes),
+              namespace ->
+                  compact(
+                      policy.cachedRefs(namespace.listRefs(delegate)),
+                      config,
+                      delegate.hasVersioning()))) {
+        reweigh(projectName, projectRefs);
+      }
+    } catch (IOException e) {
+      throw new ExecutionException(e);
+    }
+  }
+
+  /**
+   * Load the refs of a project in the cache, if not there yet.
+   *
+   * @param projectName project name
+   * @param delegate ref database of the project
+   * @throws ExecutionException if the refs cannot be loaded
+   */
+  void warmUp(String projectName, RefDatabase delegate) throws ExecutionException {
+    if (!policy.isCached(projectName)) {
+      return;
+    }
+    loadNamespaces(projectName, projectRefs(projectName, delegate), delegate, RefDatabase.ALL);
+  }
+
+  /**
+   * Keep serving the refs of a project dropped from the cache while they are reloaded in the
+   * background, if enabled by {@link CachedRefDbConfig#getMaxStaleness()}. Does nothing if the
+   * refs of the project were loaded again in the meantime, or were discarded as wrong or no longer
+   * cached.
+   *
+   * @param projectName project name
+   * @param dropped entry dropped from the cache
+   */
+  void keepServingStale(String projectName, ProjectRefs dropped) {
+    if (config.getMaxStaleness().isZero()
+        || dropped.isDiscarded()
+        || dropped.isRestored()
+        || dropped.isStale()
+        || !policy.isCached(projectName)) {
+      return;
+    }
+    refNamesByProject.asMap().putIfAbsent(projectName, dropped.toStale());
+  }
+
+  /** Remove the refs of a project from the cache without serving them stale meanwhile. */
+  private void discard(String projectName, ProjectRefs projectRefs) {
+    projectRefs.discard();
+    refNamesByProject.asMap().remove(projectName, projectRefs);
+  }
+
+  /**
+   * Get the most accessed projects since the start, most accessed first.
+   *
+   * @param limit maximum number of projects to return
+   * @return names of the projects
+   */
+  List<String> mostAccessedProjects(int limit) {
+    return accesses.entrySet().stream()
+        .sorted(
+            Comparator.comparingLong((Map.Entry<String, LongAdder> e) -> e.getValue().sum())
+                .reversed())
+        .limit(limit)
+        .map(Map.Entry::getKey)
+        .collect(ImmutableList.toImmutableList());
+  }
+
+  private ProjectRefs projectRefs(String projectName, RefDatabase delegate)
+      throws ExecutionException {
+    accesses.computeIfAbsent(projectName, p -> new LongAdder()).increment();
+    while (true) {
+      ProjectRefs projectRefs =
+          refNamesByProject.get(projectName, getLoader(projectName, delegate));
+      if (projectRefs.isRestored()) {
+        projectRefs = checkRestored(projectName, projectRefs);
+      } else if (!config.getMaxStaleness().isZero()
+          && projectRefs.isStaleLongerThan(config.getMaxStaleness())) {
+        logger.atFine().log("Refs of %s stale for too long, loading them", projectName);
+        refNamesByProject.asMap().remove(projectName, projectRefs);
+        projectRefs = null;
+      } else if (isChangedOnDisk(projectName, projectRefs)) {
+        projectRefs = refresh(projectName, projectRefs, delegate);
+      }
+      if (projectRefs != null) {
+        if (projectRefs.isStale()) {
+          reloadInBackground(projectName, projectRefs);
+        }
+        return projectRefs;
+      }
+    }
+  }
+
+  /**
+   * Check the refs of a project against the refs on disk, at most once per configured interval:
+   * unchanged refs only cost the stats of the {@link RefsFingerprint}. The refs may have been
+   * changed by another node sharing the repositories. Updates made through this node are already
+   * in the cached refs: the fingerprint is taken again instead of reloading them, see {@link
+   * ProjectRefs#adoptFingerprint}.
+   */
+  private boolean isChangedOnDisk(String projectName, ProjectRefs projectRefs) {
+    Duration interval = config.getCheckInterval();
+    if (interval.isZero() || projectRefs.isStale() || !projectRefs.claimCheck(interval)) {
+      return false;
+    }
+    RefsFingerprint current = fingerprinter.fingerprint(projectName);
+    if (projectRefs.fingerprint().matches(current) || projectRefs.adoptFingerprint(current)) {
       return false;
     }
+    logger.atFine().log("Refs of %s changed on disk since they were cached", projectName);
+    return true;
+  }
+
+  /**
+   * Refresh refs changed on disk: mark them stale and reconcile them with the refs on disk, in the
+   * background if stale refs may be served meanwhile, or right away otherwise.
+   *
+   * @return the stale entry now in the cache, or {@code null} if the entry must be read again
+   */
+  @Nullable
+  private ProjectRefs refresh(String projectName, ProjectRefs changed, RefDatabase delegate)
+      throws ExecutionException {
+    ProjectRefs stale = changed.toStale();
+    boolean inline = config.getMaxStaleness().isZero();
+    if (inline) {
+      // Claimed before the entry is visible, so that no background reload is started.
+      stale.startReload();
+    }
+    if (!refNamesByProject.asMap().replace(projectName, changed, stale)) {
+      return null;
+    }
+    if (!inline) {
+      return stale;
+    }
+    try {
+      reconcile(projectName, stale, delegate);
+    } catch (IOException e) {
+      stale.reloadFailed();
+      throw new ExecutionException(e);
+    }
+    return null;
+  }
+
+  private void reloadInBackground(String projectName, ProjectRefs stale) {
+    if (stale.startReload()) {
+      reloader.reload(
+          projectName,
+          refDatabase -> reconcile(projectName, stale, refDatabase),
+          stale::reloadFailed);
+    }
+  }
+
+  /**
+   * Reconcile the tree of a stale entry in place with the refs listed from {@code refDatabase},
+   * then read again the refs updated in the stale entry meanwhile, as the listing may predate them,
+   * and put the tree back in the cache as up to date. The stale entry is only replaced if still in
+   * the cache: if it stayed stale for too long, the refs loaded instead already include all
+   * updates.
+   */
+  private void reconcile(String projectName, ProjectRefs stale, RefDatabase refDatabase)
+      throws IOException {
+    RefsFingerprint fingerprint =
+        RefNamesByProjectLoader.fingerprint(projectName, config, fingerprinter);
+    RefTree tree = stale.tree();
+    int changed =
+        tree.reconcile(
+            compact(
+                policy.cachedRefs(refDatabase.getRefs()), config, refDatabase.hasVersioning()));
+    logger.atFine().log("Reconciled %d refs of %s with the refs on disk", changed, projectName);
+    stale.retire(
+        updatedRefNames -> {
+          for (String refName : updatedRefNames) {
+            Ref ref = refDatabase.exactRef(refName);
+            if (ref != null) {
+              tree.insert(refName, compact(ref, refDatabase));
+            } else {
+              tree.delete(refName);
+            }
+          }
+          refNamesByProject
+              .asMap()
+              .replace(projectName, stale, ProjectRefs.loaded(fingerprint, tree));
+        });
+  }
+
+  /**
+   * Refs restored from the persistent cache after a restart are only used if the refs on disk are
+   * unchanged since they were loaded, otherwise they are dropped from the cache to be loaded again,
+   * or served stale while they are reloaded if enabled.
+   *
+   * @return the entry of the project once checked, or {@code null} if it must be loaded again
+   */
+  @Nullable
+  private ProjectRefs checkRestored(String projectName, ProjectRefs restored) {
+    boolean unchanged = restored.fingerprint().matches(fingerprinter.fingerprint(projectName));
+    if (!unchanged && config.getMaxStaleness().isZero()) {
+      logger.atFine().log("Refs of %s changed on disk since they were cached", projectName);
+      refNamesByProject.invalidate(projectName);
+      return null;
+    }
+    return refNamesByProject
+        .asMap()
+        .computeIfPresent(
+            projectName,
+            (project, current) -> {
+              if (current != restored) {
+                return current;
+              }
+              // Serialized refs have no update index.
+              List<Ref> refs = compact(policy.cachedRefs(restored.refs()), config, false);
+              ProjectRefs loaded =
+                  ProjectRefs.loaded(
+                      restored.fingerprint(), RefNamesByProjectLoader.build(refs, config));
+              return unchanged ? loaded : loaded.toStale();
+            });
+  }
+
+  private Callable<ProjectRefs> getLoader(String projectName, RefDatabase delegate) {
+    return () ->
+        RefNamesByProjectLoader.load(projectName, delegate, config, fingerprinter, policy);
   }
 
   @Override
   public List<Ref> all(String projectName, RefDatabase delegate) throws ExecutionException {
-    return refNamesByProject.get(projectName, getLoader(delegate)).getAllValues();
+    if (!policy.route(projectName, RefDatabase.ALL)) {
+      try {
+        return delegate.getRefs();
+      } catch (IOException e) {
+        throw new ExecutionException(e);
+      }
+    }
+    RefTree tree = refs(projectName, delegate, RefDatabase.ALL);
+    return config.isVerifyAllRefs() ? verified(projectName, tree, delegate) : tree.getAllValues();
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>The cached refs are visited until the first one, see {@link RefTree#visitWithPrefix}. The
+   * ref database is only asked if none is cached, as some refs may not be cached at all.
+   */
+  @Override
+  public boolean hasRefs(String projectName, RefDatabase delegate) throws ExecutionException {
+    if (policy.route(projectName, RefDatabase.ALL)) {
+      RefTree tree = refs(projectName, delegate, RefDatabase.ALL);
+      if (!tree.visitWithPrefix(RefDatabase.ALL, ref -> false)) {
+        return true;
+      }
+    }
+    try {
+      return delegate.hasRefs();
+    } catch (IOException e) {
+      throw new ExecutionException(e);
+    }
+  }
+
+  /**
+   * List all refs from the ref database and check the cached ones against them: the cached refs of
+   * the project are dropped if they differ, unless stale or replaced meanwhile. A ref updated while
+   * listing is reported as a mismatch as well, which only costs a reload.
+   *
+   * @return the refs listed from the ref database
+   */
+  private List<Ref> verified(String projectName, RefTree tree, RefDatabase delegate)
+      throws ExecutionException {
+    List<Ref> refs;
+    try {
+      refs = delegate.getRefs();
+    } catch (IOException e) {
+      throw new ExecutionException(e);
+    }
+    long mismatches =
+        refs.stream().filter(ref -> !isSameTarget(tree.get(ref.getName()), ref)).count();
+    if (mismatches == 0 && refs.size() == tree.size()) {
+      return refs;
+    }
+    logger.atWarning().log(
+        "Cached refs of %s differ from the refs on disk: %d refs differ, %d cached vs %d on disk",
+        projectName, mismatches, tree.size(), refs.size());
+    ProjectRefs current = refNamesByProject.getIfPresent(projectName);
+    if (current != null && !current.isStale() && current.tree() == tree) {
+      discard(projectName, current);
+    }
+    return refs;
+  }
+
+  /** Whether a cached ref points at the same object, or target for a symbolic ref, as on disk. */
+  private static boolean isSameTarget(@Nullable Ref cached, Ref ref) {
+    if (cached == null || cached.isSymbolic() != ref.isSymbolic()) {
+      return false;
+    }
+    return ref.isSymbolic()
+        ? cached.getTarget().getName().equals(ref.getTarget().getName())
+        : Objects.equals(cached.getObjectId(), ref.getObjectId());
   }
 
   public void updateRefInPrefixesByProjectCache(String projectName, Ref ref, RefDatabase delegate)
       throws ExecutionException {
-    RefTernarySearchTree tree = refNamesByProject.get(projectName, getLoader(delegate));
-    tree.insert(ref.getName(), ref);
+    if (policy.routeUpdate(projectName) && policy.isCachedRef(ref.getName())) {
+      insert(projectName, ref, delegate);
+    }
   }
 
   public void updateRefInPrefixesByProjectCache(
       String projectName, String refName, RefDatabase delegate)
       throws IOException, ExecutionException {
-    updateRefInPrefixesByProjectCache(projectName, delegate.exactRef(refName), delegate);
+    if (policy.routeUpdate(projectName) && policy.isCachedRef(refName)) {
+      readBack(projectName, refName, delegate);
+    }
+  }
+
+  /**
+   * Update a ref to the object id a successful update set it to. The ref is built rather than read
+   * back from the repository, unless it is symbolic: the update then moved its target, which is
+   * read back and updated as well. Tags are read back too, see {@link #isReadBack}.
+   */
+  public void updateRefInPrefixesByProjectCache(
+      String projectName, String refName, @Nullable ObjectId newId, RefDatabase delegate)
+      throws IOException, ExecutionException {
+    if (!policy.routeUpdate(projectName) || !policy.isCachedRef(refName)) {
+      return;
+    }
+    Ref cached = projectRefs(projectName, delegate).tree().get(refName);
+    if (newId == null || newId.equals(ObjectId.zeroId()) || isReadBack(refName, cached)) {
+      readBack(projectName, refName, delegate);
+    } else {
+      insert(projectName, updatedRef(refName, newId, delegate), delegate);
+    }
+  }
+
+  private void readBack(String projectName, String refName, RefDatabase delegate)
+      throws IOException, ExecutionException {
+    Ref ref = delegate.exactRef(refName);
+    if (ref == null) {
+      // Deleted meanwhile.
+      delete(projectName, refName, delegate);
+      return;
+    }
+    insert(projectName, ref, delegate);
+    if (ref.isSymbolic() && policy.isCachedRef(ref.getLeaf().getName())) {
+      insert(projectName, ref.getLeaf(), delegate);
+    }
+  }
+
+  /**
+   * Apply the successful commands of a batch ref update to the cached refs at once, see {@link
+   * RefTree#apply}. As for a single update, refs are built from their new object id unless
+   * symbolic or tags, in which case they are read back, all together.
+   */
+  @Override
+  public void updateRefs(String projectName, List<ReceiveCommand> commands, RefDatabase delegate)
+      throws IOException {
+    if (!policy.routeUpdate(projectName, commands.size())) {
+      return;
+    }
+    try {
+      RefTree cached = projectRefs(projectName, delegate).tree();
+      Map<String, Ref> updated = new LinkedHashMap<>();
+      List<String> deleted = new ArrayList<>();
+      List<String> readBack = new ArrayList<>();
+      for (ReceiveCommand cmd : commands) {
+        String refName = cmd.getRefName();
+        if (!policy.isCachedRef(refName)) {
+          continue;
+        }
+        Ref current = cached.get(refName);
+        if (cmd.getType() == ReceiveCommand.Type.DELETE) {
+          deleted.add(refName);
+        } else if (cmd.getNewSymref() != null || isReadBack(refName, current)) {
+          readBack.add(refName);
+        } else {
+          updated.put(refName, compact(updatedRef(refName, cmd.getNewId(), delegate), delegate));
+        }
+      }
+      if (!readBack.isEmpty()) {
+        Map<String, Ref> read = delegate.exactRef(readBack.toArray(new String[0]));
+        for (String refName : readBack) {
+          Ref ref = read.get(refName);
+          if (ref == null) {
+            deleted.add(refName);
+            continue;
+          }
+          updated.put(refName, compact(ref, delegate));
+          if (ref.isSymbolic() && policy.isCachedRef(ref.getLeaf().getName())) {
+            updated.put(ref.getLeaf().getName(), compact(ref.getLeaf(), delegate));
+          }
+        }
+      }
+      if (updated.isEmpty() && deleted.isEmpty()) {
+        return;
+      }
+      Set<String> refNames = new LinkedHashSet<>(updated.keySet());
+      refNames.addAll(deleted);
+      update(
+          projectName,
+          delegate,
+          tree -> tree.apply(updated, deleted),
+          refNames.toArray(new String[0]));
+    } catch (ExecutionException e) {
+      throw new IOException(e);
+    }
+  }
+
+  /**
+   * Whether an updated ref must be read back from the ref database rather than built from its new
+   * object id: symbolic refs, whose target moved, and tags, which may carry the peeled object id of
+   * an annotated tag.
+   */
+  private static boolean isReadBack(String refName, @Nullable Ref cached) {
+    return (cached != null && cached.isSymbolic()) || refName.startsWith(RefNames.REFS_TAGS);
+  }
+
+  /** Build a ref as the ref database reads it back after an update, peeled on demand. */
+  private static Ref updatedRef(String refName, ObjectId newId, RefDatabase delegate) {
+    // Ref directories write updated refs as loose files, reftables and other formats pack them.
+    Ref.Storage storage = delegate instanceof RefDirectory ? Ref.Storage.LOOSE : Ref.Storage.PACKED;
+    return new ObjectIdRef.Unpeeled(storage, refName, newId.copy());
+  }
+
+  /**
+   * Get the ref to cache, as a {@link CompactRef} if enabled, see {@link
+   * CachedRefDbConfig#isCompactRefs()}.
+   */
+  private Ref compact(Ref ref, RefDatabase delegate) {
+    return config.isCompactRefs() && !delegate.hasVersioning() ? CompactRef.of(ref) : ref;
+  }
+
+  /**
+   * Get the refs to cache, as {@link CompactRef}s if enabled, unless read from a ref database with
+   * versioning: compact refs have no update index.
+   */
+  private static List<Ref> compact(List<Ref> refs, CachedRefDbConfig config, boolean versioning) {
+    if (!config.isCompactRefs() || versioning) {
+      return refs;
+    }
+    List<Ref> compacted = new ArrayList<>(refs.size());
+    for (Ref ref : refs) {
+      compacted.add(CompactRef.of(ref));
+    }
+    return compacted;
   }
 
   public void deleteRefInPrefixesByProjectCache(
       String projectName, String refName, RefDatabase delegate) throws ExecutionException {
-    refNamesByProject.get(projectName, getLoader(delegate)).delete(refName);
+    if (policy.routeUpdate(projectName) && policy.isCachedRef(refName)) {
+      delete(projectName, refName, delegate);
+    }
   }
 
   @Override
   public void put(String project, Ref ref, RefDatabase delegate) throws IOException {
+    // Fills the cache with a ref read from the repository, not an update of the project.
+    if (!policy.isCached(project) || !policy.isCachedRef(ref.getName())) {
+      return;
+    }
     try {
-      updateRefInPrefixesByProjectCache(project, ref, delegate);
+      insert(project, ref, delegate);
     } catch (ExecutionException e) {
       throw new IOException(e);
     }
@@ -147,14 +738,58 @@ class RefDatabaseCacheImpl implements RefDatabaseCache {
   @Override
   public void renameRef(String project, Ref srcRef, Ref destRef, RefDatabase delegate)
       throws ExecutionException {
-    RefTernarySearchTree tree = refNamesByProject.get(project, getLoader(delegate));
-    Lock lock = tree.getLock().writeLock();
-    lock.lock();
-    try {
-      tree.delete(srcRef.getName());
-      tree.insert(destRef.getName(), destRef);
-    } finally {
-      lock.unlock();
+    if (!policy.routeUpdate(project)) {
+      return;
+    }
+    if (!policy.isCachedRef(srcRef.getName())) {
+      if (policy.isCachedRef(destRef.getName())) {
+        insert(project, destRef, delegate);
+      }
+    } else if (!policy.isCachedRef(destRef.getName())) {
+      delete(project, srcRef.getName(), delegate);
+    } else {
+      update(
+          project,
+          delegate,
+          tree -> tree.rename(srcRef.getName(), compact(destRef, delegate)),
+          srcRef.getName(),
+          destRef.getName());
+    }
+  }
+
+  private void insert(String projectName, Ref ref, RefDatabase delegate)
+      throws ExecutionException {
+    Ref cached = compact(ref, delegate);
+    update(projectName, delegate, tree -> tree.insert(ref.getName(), cached), ref.getName());
+  }
+
+  private void delete(String projectName, String refName, RefDatabase delegate)
+      throws ExecutionException {
+    update(projectName, delegate, tree -> tree.delete(refName), refName);
+  }
+
+  /**
+   * Apply an update to the refs of a project, retrying on the entry which replaced a stale one if
+   * it was replaced meanwhile, see {@link ProjectRefs#update}.
+   */
+  private void update(
+      String projectName, RefDatabase delegate, Consumer<RefTree> update, String... refNames)
+      throws ExecutionException {
+    ProjectRefs projectRefs;
+    do {
+      projectRefs = projectRefs(projectName, delegate);
+    } while (!projectRefs.update(update, refNames));
+    reweigh(projectName, projectRefs);
+  }
+
+  /**
+   * The cache only weighs an entry when it is stored: store the tree again once its estimated size
+   * moved enough after updates, so that its weight follows the refs it holds, see {@link
+   * ProjectRefs#needsReweigh()}. Does nothing if the tree was evicted or reloaded in the meantime.
+   */
+  private void reweigh(String projectName, ProjectRefs projectRefs) {
+    if (projectRefs.needsReweigh()) {
+      refNamesByProject.asMap().replace(projectName, projectRefs, projectRefs);
     }
   }
 
@@ -168,10 +803,28 @@ class RefDatabaseCacheImpl implements RefDatabaseCache {
     }
   }
 
+  @Override
+  public void updateRef(
+      String identifier, String refName, @Nullable ObjectId newId, RefDatabase delegate)
+      throws IOException {
+    try {
+      updateRefInPrefixesByProjectCache(identifier, refName, newId, delegate);
+    } catch (ExecutionException e) {
+      throw new IOException(e);
+    }
+  }
+
   @Override
   public Set<Ref> getRefsByObjectId(String projectName, ObjectId id, RefDatabase delegate)
       throws ExecutionException {
-    return refNamesByProject.get(projectName, getLoader(delegate)).getByObjectId(id);
+    if (!policy.route(projectName, RefDatabase.ALL)) {
+      try {
+        return delegate.getTipsWithSha1(id);
+      } catch (IOException e) {
+        throw new ExecutionException(e);
+      }
+    }
+    return refs(projectName, delegate, RefDatabase.ALL).getByObjectId(id);
   }
 
   @Override
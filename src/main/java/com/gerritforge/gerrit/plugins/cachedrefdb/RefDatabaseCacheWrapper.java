@@ -16,11 +16,14 @@ import com.google.gerrit.extensions.registration.DynamicItem;
 import com.google.inject.Inject;
 import java.io.IOException;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ExecutionException;
+import org.eclipse.jgit.annotations.Nullable;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.Ref;
 import org.eclipse.jgit.lib.RefDatabase;
+import org.eclipse.jgit.transport.ReceiveCommand;
 
 class RefDatabaseCacheWrapper implements RefDatabaseCache {
 
@@ -36,6 +39,19 @@ class RefDatabaseCacheWrapper implements RefDatabaseCache {
     return cache.get(identifier, ref, delegate);
   }
 
+  @Override
+  public Map<String, Ref> getAll(String identifier, String[] refNames, RefDatabase delegate)
+      throws IOException {
+    return cache.getAll(identifier, refNames, delegate);
+  }
+
+  @Override
+  @Nullable
+  public Ref getFirst(String identifier, String[] refNames, RefDatabase delegate)
+      throws IOException {
+    return cache.getFirst(identifier, refNames, delegate);
+  }
+
   @Override
   public boolean containsKey(String identifier, String ref, RefDatabase delegate) {
     return cache.containsKey(identifier, ref, delegate);
@@ -57,11 +73,23 @@ class RefDatabaseCacheWrapper implements RefDatabaseCache {
     return cache.allByPrefixes(identifier, prefixes, delegate);
   }
 
+  @Override
+  public List<Ref> allByPrefixWithExclusions(
+      String identifier, String include, Set<String> excludes, RefDatabase delegate)
+      throws ExecutionException {
+    return cache.allByPrefixWithExclusions(identifier, include, excludes, delegate);
+  }
+
   @Override
   public List<Ref> all(String identifier, RefDatabase delegate) throws ExecutionException {
     return cache.all(identifier, delegate);
   }
 
+  @Override
+  public boolean hasRefs(String identifier, RefDatabase delegate) throws ExecutionException {
+    return cache.hasRefs(identifier, delegate);
+  }
+
   @Override
   public void renameRef(String identifier, Ref srcRef, Ref destRef, RefDatabase delegate)
       throws ExecutionException {
@@ -74,6 +102,19 @@ class RefDatabaseCacheWrapper implements RefDatabaseCache {
     cache.updateRef(identifier, refName, delegate);
   }
 
+  @Override
+  public void updateRef(
+      String identifier, String refName, @Nullable ObjectId newId, RefDatabase delegate)
+      throws IOException {
+    cache.updateRef(identifier, refName, newId, delegate);
+  }
+
+  @Override
+  public void updateRefs(String identifier, List<ReceiveCommand> commands, RefDatabase delegate)
+      throws IOException {
+    cache.updateRefs(identifier, commands, delegate);
+  }
+
   @Override
   public Set<Ref> getRefsByObjectId(String projectName, ObjectId id, RefDatabase delegate)
       throws ExecutionException {
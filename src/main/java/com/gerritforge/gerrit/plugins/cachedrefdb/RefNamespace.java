@@ -0,0 +1,96 @@
+// Copyright (C) 2026 GerritForge, Inc.
+//
+// Licensed under the BSL 1.1 (the "License");
+// you may not use this file except in compliance with the License.
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.gerritforge.gerrit.plugins.cachedrefdb;
+
+import static com.google.common.collect.ImmutableSet.toImmutableSet;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.gerrit.entities.RefNames;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.RefDatabase;
+
+/** Top-level ref namespaces which are held in separate shards of a {@link ShardedRefTree}. */
+enum RefNamespace {
+  CHANGES(RefNames.REFS_CHANGES),
+  HEADS(RefNames.REFS_HEADS),
+  META(RefNames.REFS_META),
+  SEQUENCES(RefNames.REFS_SEQUENCES),
+  TAGS(RefNames.REFS_TAGS),
+  USERS(RefNames.REFS_USERS),
+  /** Any ref outside of the namespaces above, e.g. {@code HEAD} or {@code refs/draft-comments/}. */
+  OTHER(null);
+
+  private static final RefNamespace[] NAMED = {CHANGES, HEADS, META, SEQUENCES, TAGS, USERS};
+  private static final ImmutableSet<String> NAMED_PREFIXES =
+      Arrays.stream(NAMED).map(namespace -> namespace.prefix).collect(toImmutableSet());
+
+  private final String prefix;
+
+  RefNamespace(String prefix) {
+    this.prefix = prefix;
+  }
+
+  /**
+   * Get the namespace a ref belongs to.
+   *
+   * @param refName ref name
+   * @return namespace of the ref
+   */
+  static RefNamespace of(String refName) {
+    for (RefNamespace namespace : NAMED) {
+      if (refName.startsWith(namespace.prefix)) {
+        return namespace;
+      }
+    }
+    return OTHER;
+  }
+
+  /**
+   * Check whether refs starting with {@code refPrefix} may belong to this namespace.
+   *
+   * @param refPrefix ref name prefix
+   * @return whether this namespace may hold refs starting with {@code refPrefix}
+   */
+  boolean mayContain(String refPrefix) {
+    if (this == OTHER) {
+      return of(refPrefix) == OTHER;
+    }
+    return refPrefix.startsWith(prefix) || prefix.startsWith(refPrefix);
+  }
+
+  /**
+   * Check whether all refs of this namespace start with {@code refPrefix}.
+   *
+   * @param refPrefix ref name prefix
+   * @return whether every ref of this namespace starts with {@code refPrefix}
+   */
+  boolean isCoveredBy(String refPrefix) {
+    return this != OTHER && prefix.startsWith(refPrefix);
+  }
+
+  /**
+   * List the refs of this namespace from a ref database.
+   *
+   * @param refDatabase ref database to read the refs from
+   * @return the refs of this namespace
+   * @throws IOException if the refs cannot be read
+   */
+  List<Ref> listRefs(RefDatabase refDatabase) throws IOException {
+    if (this == OTHER) {
+      return refDatabase.getRefsByPrefixWithExclusions(RefDatabase.ALL, NAMED_PREFIXES);
+    }
+    return refDatabase.getRefsByPrefix(prefix);
+  }
+}
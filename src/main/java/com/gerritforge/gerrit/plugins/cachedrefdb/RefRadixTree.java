@@ -0,0 +1,572 @@
+// Copyright (C) 2026 GerritForge, Inc.
+//
+// Licensed under the BSL 1.1 (the "License");
+// you may not use this file except in compliance with the License.
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.gerritforge.gerrit.plugins.cachedrefdb;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import org.eclipse.jgit.annotations.Nullable;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+
+/**
+ * A path-compressed radix tree (Patricia trie) of {@link Ref}s keyed by ref name, with the ability
+ * to look up refs by the {@link ObjectId} they point to.
+ *
+ * <p>Each node holds the whole run of characters shared by all the keys below it, instead of one
+ * node per character as in {@link RefTernarySearchTree}, so that e.g. the 2M {@code
+ * refs/changes/NN/NNNNNN/N} refs of a large project need about one node per ref and per change.
+ * Children of a node are kept in an array sorted by their first character.
+ *
+ * <p>This class is thread safe.
+ */
+public class RefRadixTree implements RefTree {
+  /**
+   * A node with its label and children arrays, on average, as measured on a 600k refs tree where
+   * most nodes are leaves holding the last segment of a ref name.
+   */
+  private static final long NODE_BYTES = 56;
+
+  /** Entry of a ref in the object id index, as measured on a 1M refs tree. */
+  private static final long INDEX_BYTES_PER_REF = 8;
+
+  private static final Node[] NO_CHILDREN = new Node[0];
+
+  private static class Node {
+    char[] label;
+
+    Node[] children = NO_CHILDREN;
+
+    Ref val;
+
+    Node(char[] label) {
+      this.label = label;
+    }
+
+    Node(String key, int from, int to) {
+      this(new char[to - from]);
+      key.getChars(from, to, label, 0);
+    }
+
+    /** Length of the common prefix of the label and {@code key} starting at {@code offset}. */
+    int match(String key, int offset) {
+      int max = Math.min(label.length, key.length() - offset);
+      int n = 0;
+      while (n < max && label[n] == key.charAt(offset + n)) {
+        n++;
+      }
+      return n;
+    }
+
+    @Nullable
+    Node child(char c) {
+      int i = indexOf(c);
+      return i >= 0 ? children[i] : null;
+    }
+
+    int indexOf(char c) {
+      int lo = 0;
+      int hi = children.length - 1;
+      while (lo <= hi) {
+        int mid = (lo + hi) >>> 1;
+        char m = children[mid].label[0];
+        if (m < c) {
+          lo = mid + 1;
+        } else if (m > c) {
+          hi = mid - 1;
+        } else {
+          return mid;
+        }
+      }
+      return -(lo + 1);
+    }
+
+    void putChild(Node child) {
+      int i = indexOf(child.label[0]);
+      if (i >= 0) {
+        children[i] = child;
+        return;
+      }
+      int pos = -(i + 1);
+      Node[] n = new Node[children.length + 1];
+      System.arraycopy(children, 0, n, 0, pos);
+      n[pos] = child;
+      System.arraycopy(children, pos, n, pos + 1, children.length - pos);
+      children = n;
+    }
+
+    void removeChild(Node child) {
+      int i = indexOf(child.label[0]);
+      if (children.length == 1) {
+        children = NO_CHILDREN;
+        return;
+      }
+      Node[] n = new Node[children.length - 1];
+      System.arraycopy(children, 0, n, 0, i);
+      System.arraycopy(children, i + 1, n, i, children.length - i - 1);
+      children = n;
+    }
+  }
+
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+  private final ObjectIdIndex byObjectId = new ObjectIdIndex();
+  private final Node root = new Node(new char[0]);
+  private int size;
+  private int nodes;
+  private long refBytes;
+
+  @Override
+  @Nullable
+  public Ref get(String refName) {
+    validateKey(refName);
+    lock.readLock().lock();
+    try {
+      Node node = find(refName);
+      return node != null ? node.val : null;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public Map<String, Ref> getAll(String... refNames) {
+    for (String refName : refNames) {
+      validateKey(refName);
+    }
+    lock.readLock().lock();
+    try {
+      Map<String, Ref> refs = new LinkedHashMap<>();
+      for (String refName : refNames) {
+        Node node = find(refName);
+        if (node != null && node.val != null) {
+          refs.put(refName, node.val);
+        }
+      }
+      return refs;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  @Nullable
+  public Ref getFirst(String... refNames) {
+    for (String refName : refNames) {
+      validateKey(refName);
+    }
+    lock.readLock().lock();
+    try {
+      for (String refName : refNames) {
+        Node node = find(refName);
+        if (node != null && node.val != null) {
+          return node.val;
+        }
+      }
+      return null;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public boolean contains(String refName) {
+    return get(refName) != null;
+  }
+
+  @Override
+  public int insert(String refName, Ref ref) {
+    TernarySearchTree.validateValue(ref);
+    lock.writeLock().lock();
+    try {
+      insertImpl(refName, ref);
+      return size;
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public int delete(String refName) {
+    lock.writeLock().lock();
+    try {
+      deleteImpl(refName);
+      return size;
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public void rename(String srcRefName, Ref destRef) {
+    TernarySearchTree.validateValue(destRef);
+    lock.writeLock().lock();
+    try {
+      deleteImpl(srcRefName);
+      insertImpl(destRef.getName(), destRef);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public int apply(Map<String, Ref> updated, Collection<String> deleted) {
+    updated.values().forEach(TernarySearchTree::validateValue);
+    lock.writeLock().lock();
+    try {
+      deleted.forEach(this::deleteImpl);
+      updated.forEach(this::insertImpl);
+      return size;
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public List<Ref> getValuesWithPrefix(String prefix) {
+    List<Ref> values = new ArrayList<>();
+    if (prefix == null) {
+      return values;
+    }
+    lock.readLock().lock();
+    try {
+      Node node = findPrefix(prefix);
+      if (node != null) {
+        Deque<Node> stack = new ArrayDeque<>();
+        stack.push(node);
+        collect(stack, values);
+      }
+      return values;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public List<Ref> getValuesWithPrefixes(Collection<String> prefixes) {
+    List<String> distinct = RefTree.distinctPrefixes(prefixes);
+    List<Ref> values = new ArrayList<>();
+    lock.readLock().lock();
+    try {
+      Deque<Node> stack = new ArrayDeque<>();
+      for (String prefix : distinct) {
+        Node node = findPrefix(prefix);
+        if (node != null) {
+          stack.push(node);
+          collect(stack, values);
+        }
+      }
+      return values;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>The walk tracks the name of each node, and does not descend below a node whose name starts
+   * with an excluded prefix.
+   */
+  @Override
+  public List<Ref> getValuesWithPrefixExcluding(String prefix, Collection<String> excludes) {
+    List<Ref> values = new ArrayList<>();
+    String[] skipped = RefTree.excludedBelow(prefix, excludes);
+    if (skipped == null) {
+      return values;
+    }
+    lock.readLock().lock();
+    try {
+      Node[] stack = new Node[64];
+      int[] depth = new int[64];
+      int top = 0;
+      stack[top++] = root;
+      StringBuilder name = new StringBuilder();
+      while (top > 0) {
+        Node node = stack[--top];
+        name.setLength(depth[top]);
+        int from = name.length();
+        name.append(node.label);
+        if (!isOnPath(name, from, prefix) || startsWithSkipped(name, from, prefix, skipped)) {
+          continue;
+        }
+        if (node.val != null && name.length() >= prefix.length()) {
+          values.add(node.val);
+        }
+        if (top + node.children.length > stack.length) {
+          stack = Arrays.copyOf(stack, Math.max(stack.length * 2, top + node.children.length));
+          depth = Arrays.copyOf(depth, stack.length);
+        }
+        for (int i = node.children.length - 1; i >= 0; i--) {
+          depth[top] = name.length();
+          stack[top++] = node.children[i];
+        }
+      }
+      return values;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Whether {@code name} and {@code prefix} start the same, one being a prefix of the other. The
+   * names of the nodes above were already checked up to {@code from}.
+   */
+  private static boolean isOnPath(StringBuilder name, int from, String prefix) {
+    int n = Math.min(name.length(), prefix.length());
+    for (int i = from; i < n; i++) {
+      if (name.charAt(i) != prefix.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Whether {@code name}, on the path of {@code prefix}, starts with a skipped prefix ending past
+   * {@code from}: the names of the nodes above were already checked for the shorter ones.
+   */
+  private static boolean startsWithSkipped(
+      StringBuilder name, int from, String prefix, String[] skipped) {
+    for (String s : skipped) {
+      if (s.length() <= from || s.length() > name.length()) {
+        continue;
+      }
+      int i = prefix.length();
+      while (i < s.length() && s.charAt(i) == name.charAt(i)) {
+        i++;
+      }
+      if (i == s.length()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public List<Ref> getAllValues() {
+    return getValuesWithPrefix("");
+  }
+
+  @Override
+  public boolean visitWithPrefix(String prefix, RefVisitor visitor) {
+    if (prefix == null) {
+      return true;
+    }
+    lock.readLock().lock();
+    try {
+      Node node = findPrefix(prefix);
+      if (node == null) {
+        return true;
+      }
+      Deque<Node> stack = new ArrayDeque<>();
+      stack.push(node);
+      while (!stack.isEmpty()) {
+        node = stack.pop();
+        if (node.val != null && !visitor.visit(node.val)) {
+          return false;
+        }
+        for (int i = node.children.length - 1; i >= 0; i--) {
+          stack.push(node.children[i]);
+        }
+      }
+      return true;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public boolean visitByObjectId(ObjectId objectId, RefVisitor visitor) {
+    lock.readLock().lock();
+    try {
+      return byObjectId.visit(objectId, visitor);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public int size() {
+    lock.readLock().lock();
+    try {
+      return size;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public int nodeCount() {
+    lock.readLock().lock();
+    try {
+      return nodes;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public long estimatedBytes() {
+    lock.readLock().lock();
+    try {
+      return nodes * NODE_BYTES + size * INDEX_BYTES_PER_REF + refBytes;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  @Nullable
+  private Node find(String key) {
+    Node node = root;
+    int i = 0;
+    while (i < key.length()) {
+      Node child = node.child(key.charAt(i));
+      if (child == null || child.match(key, i) < child.label.length) {
+        return null;
+      }
+      i += child.label.length;
+      node = child;
+    }
+    return node;
+  }
+
+  /** Find the topmost node whose subtree holds exactly the keys starting with {@code prefix}. */
+  @Nullable
+  private Node findPrefix(String prefix) {
+    Node node = root;
+    int i = 0;
+    while (i < prefix.length()) {
+      Node child = node.child(prefix.charAt(i));
+      if (child == null) {
+        return null;
+      }
+      int common = child.match(prefix, i);
+      if (common == prefix.length() - i) {
+        return child;
+      }
+      if (common < child.label.length) {
+        return null;
+      }
+      i += common;
+      node = child;
+    }
+    return node;
+  }
+
+  private static void collect(Deque<Node> stack, List<Ref> values) {
+    while (!stack.isEmpty()) {
+      Node node = stack.pop();
+      if (node.val != null) {
+        values.add(node.val);
+      }
+      for (int i = node.children.length - 1; i >= 0; i--) {
+        stack.push(node.children[i]);
+      }
+    }
+  }
+
+  private static void validateKey(String key) {
+    if (key == null || key.isEmpty()) {
+      throw new IllegalArgumentException("ref name must not be empty");
+    }
+  }
+
+  private void insertImpl(String key, Ref ref) {
+    validateKey(key);
+    Node node = root;
+    int i = 0;
+    while (i < key.length()) {
+      Node child = node.child(key.charAt(i));
+      if (child == null) {
+        Node leaf = new Node(key, i, key.length());
+        node.putChild(leaf);
+        nodes++;
+        node = leaf;
+        break;
+      }
+      int common = child.match(key, i);
+      if (common < child.label.length) {
+        Node split = new Node(Arrays.copyOf(child.label, common));
+        node.putChild(split);
+        child.label = Arrays.copyOfRange(child.label, common, child.label.length);
+        split.children = new Node[] {child};
+        nodes++;
+        child = split;
+      }
+      i += common;
+      node = child;
+    }
+    Ref old = node.val;
+    if (old == null) {
+      size++;
+    } else {
+      byObjectId.remove(old);
+      refBytes -= RefSizeEstimator.refBytes(old);
+    }
+    node.val = ref;
+    refBytes += RefSizeEstimator.refBytes(ref);
+    byObjectId.add(ref);
+  }
+
+  private void deleteImpl(String key) {
+    validateKey(key);
+    Node parent = null;
+    Node node = root;
+    int i = 0;
+    while (i < key.length()) {
+      Node child = node.child(key.charAt(i));
+      if (child == null || child.match(key, i) < child.label.length) {
+        return;
+      }
+      i += child.label.length;
+      parent = node;
+      node = child;
+    }
+    if (node.val == null) {
+      return;
+    }
+    byObjectId.remove(node.val);
+    refBytes -= RefSizeEstimator.refBytes(node.val);
+    node.val = null;
+    size--;
+
+    if (parent == null) {
+      return;
+    }
+    if (node.children.length == 0) {
+      parent.removeChild(node);
+      nodes--;
+      if (parent != root && parent.val == null && parent.children.length == 1) {
+        mergeWithOnlyChild(parent);
+      }
+    } else if (node.children.length == 1) {
+      mergeWithOnlyChild(node);
+    }
+  }
+
+  private void mergeWithOnlyChild(Node node) {
+    Node child = node.children[0];
+    char[] label = Arrays.copyOf(node.label, node.label.length + child.label.length);
+    System.arraycopy(child.label, 0, label, node.label.length, child.label.length);
+    node.label = label;
+    node.children = child.children;
+    node.val = child.val;
+    nodes--;
+  }
+}
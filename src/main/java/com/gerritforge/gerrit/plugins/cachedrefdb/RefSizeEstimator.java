@@ -0,0 +1,86 @@
+// Copyright (C) 2026 GerritForge, Inc.
+//
+// Licensed under the BSL 1.1 (the "License");
+// you may not use this file except in compliance with the License.
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.gerritforge.gerrit.plugins.cachedrefdb;
+
+import org.eclipse.jgit.annotations.Nullable;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+
+/**
+ * Rough estimates of the heap retained by refs, used by the {@link RefTree}s to keep track of their
+ * own size, see {@link RefTree#estimatedBytes()}.
+ *
+ * <p>The estimates assume a 64-bit JVM with compressed references and compact (Latin-1) strings,
+ * which is what Gerrit runs with for heaps below 32 GiB.
+ */
+final class RefSizeEstimator {
+  /** An {@code ObjectIdRef}: header, name, storage, object ids and update index. */
+  private static final long REF_BYTES = 40;
+
+  /** A {@link CompactRef}: header, name, five ints and flags. */
+  private static final long COMPACT_REF_BYTES = 40;
+
+  /** A {@link CompactRef} of an annotated tag, with five more ints for the peeled object id. */
+  private static final long COMPACT_TAG_BYTES = 64;
+
+  /** A {@code SymbolicRef}: header, name, target and update index. */
+  private static final long SYMBOLIC_REF_BYTES = 32;
+
+  /** An {@link ObjectId}: header and five ints. */
+  private static final long OBJECT_ID_BYTES = 32;
+
+  /** A {@link String}: header, value array reference, hash and coder. */
+  private static final long STRING_BYTES = 24;
+
+  /** An array header, including its length. */
+  private static final long ARRAY_BYTES = 16;
+
+  private RefSizeEstimator() {}
+
+  /**
+   * Estimate the heap retained by a ref: the ref itself, its name and the object ids it points to.
+   *
+   * @param ref the ref
+   * @return estimated size in bytes
+   */
+  static long refBytes(Ref ref) {
+    long bytes = stringBytes(ref.getName());
+    if (ref.isSymbolic()) {
+      return bytes + SYMBOLIC_REF_BYTES + refBytes(ref.getTarget());
+    }
+    if (ref instanceof CompactRef) {
+      return bytes + (ref.getPeeledObjectId() != null ? COMPACT_TAG_BYTES : COMPACT_REF_BYTES);
+    }
+    return bytes
+        + REF_BYTES
+        + objectIdBytes(ref.getObjectId())
+        + objectIdBytes(ref.getPeeledObjectId());
+  }
+
+  /**
+   * Estimate the heap retained by a string.
+   *
+   * @param s the string
+   * @return estimated size in bytes
+   */
+  static long stringBytes(String s) {
+    return STRING_BYTES + align(ARRAY_BYTES + s.length());
+  }
+
+  private static long objectIdBytes(@Nullable ObjectId id) {
+    return id != null ? OBJECT_ID_BYTES : 0;
+  }
+
+  private static long align(long bytes) {
+    return (bytes + 7) & ~7L;
+  }
+}
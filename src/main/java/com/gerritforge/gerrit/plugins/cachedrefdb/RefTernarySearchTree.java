@@ -11,26 +11,79 @@
 
 package com.gerritforge.gerrit.plugins.cachedrefdb;
 
-import com.google.common.collect.HashMultimap;
-import com.google.common.collect.ImmutableSet;
-import com.google.common.collect.SetMultimap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import org.eclipse.jgit.annotations.Nullable;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.Ref;
 
 /**
  * A {@link TernarySearchTree} specialised for {@link Ref} values, keyed by ref name, with the
  * ability to look up refs by the {@link ObjectId} they point to.
+ *
+ * <p>Exact lookups by ref name are served in constant time, without taking the tree lock, by a
+ * concurrent hash index kept alongside the tree; the tree itself is only walked for prefix
+ * queries. Both are updated together under the write lock.
  */
-public class RefTernarySearchTree extends TernarySearchTree<Ref> {
+public class RefTernarySearchTree extends TernarySearchTree<Ref> implements RefTree {
+  /** A node: header, char, value and three children. */
+  private static final long NODE_BYTES = 32;
 
-  private final SetMultimap<ObjectId, Ref> byObjectId = HashMultimap.create();
+  /** Entries of a ref in the name and object id indexes, as measured on a 1M refs tree. */
+  private static final long INDEX_BYTES_PER_REF = 40;
+
+  private final ObjectIdIndex byObjectId = new ObjectIdIndex();
+  private final Map<String, Ref> byName = new ConcurrentHashMap<>();
+  private final AtomicLong refBytes = new AtomicLong();
+
+  @Override
+  @Nullable
+  public Ref get(String refName) {
+    validateKey(refName);
+    return byName.get(refName);
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>The refs are read under the read lock, so that none of them is seen before and another after
+   * a batch of updates.
+   */
+  @Override
+  public Map<String, Ref> getAll(String... refNames) {
+    getLock().readLock().lock();
+    try {
+      return RefTree.super.getAll(refNames);
+    } finally {
+      getLock().readLock().unlock();
+    }
+  }
+
+  @Override
+  @Nullable
+  public Ref getFirst(String... refNames) {
+    getLock().readLock().lock();
+    try {
+      return RefTree.super.getFirst(refNames);
+    } finally {
+      getLock().readLock().unlock();
+    }
+  }
+
+  @Override
+  public boolean contains(String refName) {
+    validateKey(refName);
+    return byName.containsKey(refName);
+  }
 
   /**
-   * Insert a ref. If the key already exists the old value is replaced and the secondary index is
-   * updated accordingly.
+   * Insert a ref. If the key already exists the old value is replaced and the secondary indexes
+   * are updated accordingly.
    *
    * @param refName ref name
    * @param ref the ref
@@ -46,8 +99,11 @@ public class RefTernarySearchTree extends TernarySearchTree<Ref> {
         getSize().incrementAndGet();
       }
       setRoot(super.insert(getRoot(), refName, ref, 0));
-      removeFromIndex(old, refName);
-      addToIndex(ref.getObjectId(), ref);
+      byName.put(refName, ref);
+      refBytes.addAndGet(
+          RefSizeEstimator.refBytes(ref) - (old != null ? RefSizeEstimator.refBytes(old) : 0));
+      byObjectId.remove(old);
+      byObjectId.add(ref);
       return size();
     } finally {
       getLock().writeLock().unlock();
@@ -55,7 +111,7 @@ public class RefTernarySearchTree extends TernarySearchTree<Ref> {
   }
 
   /**
-   * Delete a ref by key. The secondary index is updated accordingly.
+   * Delete a ref by key. The secondary indexes are updated accordingly.
    *
    * @param key ref name
    * @return number of key-value pairs after the operation
@@ -67,31 +123,80 @@ public class RefTernarySearchTree extends TernarySearchTree<Ref> {
       Ref old = get(key);
       if (old != null) {
         getSize().decrementAndGet();
-        setRoot(super.insert(getRoot(), key, null, 0));
+        setRoot(remove(getRoot(), key));
+        byName.remove(key);
+        refBytes.addAndGet(-RefSizeEstimator.refBytes(old));
       }
-      removeFromIndex(old, key);
+      byObjectId.remove(old);
       return getSize().get();
     } finally {
       getLock().writeLock().unlock();
     }
   }
 
+  @Override
+  public void rename(String srcRefName, Ref destRef) {
+    getLock().writeLock().lock();
+    try {
+      delete(srcRefName);
+      insert(destRef.getName(), destRef);
+    } finally {
+      getLock().writeLock().unlock();
+    }
+  }
+
   /**
-   * Look up all refs pointing at the given {@link ObjectId}.
+   * {@inheritDoc}
    *
-   * @param objectId the object id to look up
-   * @return unmodifiable set of refs pointing at {@code objectId}, returns an empty set if no refs
-   *     are associated with the object id.
+   * <p>Prefix and object id queries see none or all of the changes. Exact lookups by name, served
+   * without the lock, may see part of them.
    */
-  public Set<Ref> getByObjectId(ObjectId objectId) {
+  @Override
+  public int apply(Map<String, Ref> updated, Collection<String> deleted) {
+    getLock().writeLock().lock();
+    try {
+      deleted.forEach(this::delete);
+      updated.forEach(this::insert);
+      return size();
+    } finally {
+      getLock().writeLock().unlock();
+    }
+  }
+
+  @Override
+  public List<Ref> getValuesWithPrefixes(Collection<String> prefixes) {
+    return getValuesWithPrefixes(RefTree.distinctPrefixes(prefixes));
+  }
+
+  @Override
+  public List<Ref> getValuesWithPrefixExcluding(String prefix, Collection<String> excludes) {
+    String[] skipped = RefTree.excludedBelow(prefix, excludes);
+    if (skipped == null) {
+      return new ArrayList<>();
+    }
+    return getValuesWithPrefixSkipping(prefix, skipped);
+  }
+
+  @Override
+  public boolean visitWithPrefix(String prefix, RefVisitor visitor) {
+    return visitValuesWithPrefix(prefix, visitor::visit);
+  }
+
+  @Override
+  public boolean visitByObjectId(ObjectId objectId, RefVisitor visitor) {
     getLock().readLock().lock();
     try {
-      return ImmutableSet.copyOf(byObjectId.get(objectId));
+      return byObjectId.visit(objectId, visitor);
     } finally {
       getLock().readLock().unlock();
     }
   }
 
+  @Override
+  public long estimatedBytes() {
+    return nodeCount() * NODE_BYTES + size() * INDEX_BYTES_PER_REF + refBytes.get();
+  }
+
   @Override
   public int replace(Iterable<Entry<String, Ref>> loader) {
     throw new UnsupportedOperationException(
@@ -106,30 +211,22 @@ public class RefTernarySearchTree extends TernarySearchTree<Ref> {
 
   @Override
   public int insert(Map<String, Ref> map) {
-    throw new UnsupportedOperationException(
-        "insert(Map) is not supported; use insert(String, Ref) instead");
+    return apply(map, List.of());
   }
 
   @Override
   public int delete(Iterable<String> delete) {
-    throw new UnsupportedOperationException(
-        "delete(Iterable) is not supported; use delete(String) instead");
+    getLock().writeLock().lock();
+    try {
+      delete.forEach(this::delete);
+      return size();
+    } finally {
+      getLock().writeLock().unlock();
+    }
   }
 
   @Override
   public void clear() {
     throw new UnsupportedOperationException("clear() is not supported on RefTernarySearchTree");
   }
-
-  private void addToIndex(ObjectId objectId, Ref ref) {
-    if (objectId != null) {
-      byObjectId.put(objectId, ref);
-    }
-  }
-
-  private void removeFromIndex(Ref old, String refName) {
-    if (old != null && old.getObjectId() != null) {
-      byObjectId.get(old.getObjectId()).removeIf(r -> r.getName().equals(refName));
-    }
-  }
 }
@@ -0,0 +1,358 @@
+// Copyright (C) 2026 GerritForge, Inc.
+//
+// Licensed under the BSL 1.1 (the "License");
+// you may not use this file except in compliance with the License.
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.gerritforge.gerrit.plugins.cachedrefdb;
+
+import com.google.common.collect.Comparators;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.PeekingIterator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Collectors;
+import org.eclipse.jgit.annotations.Nullable;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+
+/**
+ * Refs of a single project, keyed by ref name, as held in the {@code ref_names_by_project} cache.
+ *
+ * <p>Implementations must be thread safe.
+ */
+interface RefTree {
+  /** Callback for the refs visited by {@link #visitWithPrefix} and {@link #visitByObjectId}. */
+  @FunctionalInterface
+  interface RefVisitor {
+    /**
+     * @param ref visited ref
+     * @return whether the traversal should continue
+     */
+    boolean visit(Ref ref);
+  }
+
+  /**
+   * Get the ref with the given name.
+   *
+   * @param refName ref name
+   * @return the ref, or {@code null} if there is no ref with this name
+   */
+  @Nullable
+  Ref get(String refName);
+
+  /**
+   * Get the refs with the given names at once. Implementations read them from a single snapshot or
+   * under a single lock unless documented otherwise.
+   *
+   * @param refNames ref names
+   * @return the refs found, keyed by name, in the order of {@code refNames}
+   */
+  default Map<String, Ref> getAll(String... refNames) {
+    Map<String, Ref> refs = new LinkedHashMap<>();
+    for (String refName : refNames) {
+      Ref ref = get(refName);
+      if (ref != null) {
+        refs.put(refName, ref);
+      }
+    }
+    return refs;
+  }
+
+  /**
+   * Get the first of the given refs which exists. Implementations read them from a single snapshot
+   * or under a single lock unless documented otherwise.
+   *
+   * @param refNames ref names, in the order they are looked up
+   * @return the first ref found, or {@code null} if none of them exists
+   */
+  @Nullable
+  default Ref getFirst(String... refNames) {
+    for (String refName : refNames) {
+      Ref ref = get(refName);
+      if (ref != null) {
+        return ref;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Check whether the tree contains a ref with the given name.
+   *
+   * @param refName ref name
+   * @return whether a ref with this name exists
+   */
+  boolean contains(String refName);
+
+  /**
+   * Insert a ref. If a ref with the same name already exists it is replaced.
+   *
+   * @param refName ref name
+   * @param ref the ref
+   * @return number of refs after the operation
+   */
+  int insert(String refName, Ref ref);
+
+  /**
+   * Delete a ref. Does nothing if the ref doesn't exist.
+   *
+   * @param refName ref name
+   * @return number of refs after the operation
+   */
+  int delete(String refName);
+
+  /**
+   * Atomically replace {@code srcRefName} with {@code destRef}.
+   *
+   * @param srcRefName name of the ref to remove
+   * @param destRef ref to insert in its place
+   */
+  void rename(String srcRefName, Ref destRef);
+
+  /**
+   * Apply the results of a batch of ref updates at once, under a single lock or snapshot swap:
+   * readers see either none or all of them, unless documented otherwise.
+   *
+   * @param updated refs created or updated, keyed by name
+   * @param deleted names of the refs deleted, those which don't exist are ignored
+   * @return number of refs after the operation
+   */
+  int apply(Map<String, Ref> updated, Collection<String> deleted);
+
+  /**
+   * Apply the differences with a fresh listing of the refs in place: insert the new and updated
+   * refs and delete the ones not listed anymore, leaving the unchanged ones untouched. This is much
+   * cheaper than building a new tree when few refs changed, and readers keep being served
+   * meanwhile.
+   *
+   * <p>A ref is unchanged if it has the same object id, and the same peeled object id when both
+   * refs are peeled, or the same target for a symbolic ref: a ref only moved between loose and
+   * packed storage, or only peeled on disk, is not updated.
+   *
+   * @param refs all refs
+   * @return number of refs inserted, updated or deleted
+   */
+  default int reconcile(List<Ref> refs) {
+    Comparator<Ref> byName = Comparator.comparing(Ref::getName);
+    if (!Comparators.isInStrictOrder(refs, byName)) {
+      refs = refs.stream().sorted(byName).collect(Collectors.toList());
+    }
+    // Only the differences are collected: the cached refs are not copied.
+    PeekingIterator<Ref> listed = Iterators.peekingIterator(refs.iterator());
+    List<Ref> updated = new ArrayList<>();
+    List<String> deleted = new ArrayList<>();
+    visitWithPrefix(
+        "",
+        cached -> {
+          String name = cached.getName();
+          while (listed.hasNext() && listed.peek().getName().compareTo(name) < 0) {
+            updated.add(listed.next());
+          }
+          if (listed.hasNext() && listed.peek().getName().equals(name)) {
+            Ref ref = listed.next();
+            if (!isSameRef(cached, ref)) {
+              updated.add(ref);
+            }
+          } else {
+            deleted.add(name);
+          }
+          return true;
+        });
+    listed.forEachRemaining(updated::add);
+    deleted.forEach(this::delete);
+    updated.forEach(ref -> insert(ref.getName(), ref));
+    return updated.size() + deleted.size();
+  }
+
+  /**
+   * Get all refs whose name starts with the given prefix, sorted by name.
+   *
+   * @param prefix ref name prefix
+   * @return refs starting with the prefix
+   */
+  List<Ref> getValuesWithPrefix(String prefix);
+
+  /**
+   * Get all refs whose name starts with any of the given prefixes, sorted by name and without
+   * duplicates. Implementations read them under a single lock or from a single snapshot, into a
+   * single list.
+   *
+   * @param prefixes ref name prefixes
+   * @return refs starting with any of the prefixes
+   */
+  default List<Ref> getValuesWithPrefixes(Collection<String> prefixes) {
+    List<String> distinct = distinctPrefixes(prefixes);
+    if (distinct.size() == 1) {
+      return getValuesWithPrefix(distinct.get(0));
+    }
+    List<Ref> refs = new ArrayList<>();
+    distinct.forEach(prefix -> refs.addAll(getValuesWithPrefix(prefix)));
+    return refs;
+  }
+
+  /**
+   * Sort the prefixes and drop the ones starting with a shorter one: the refs starting with each of
+   * the returned prefixes, taken in order, are sorted by name and unique.
+   *
+   * @param prefixes ref name prefixes, {@code null} ones are ignored
+   * @return the distinct prefixes, sorted
+   */
+  static List<String> distinctPrefixes(Collection<String> prefixes) {
+    List<String> sorted =
+        prefixes.stream().filter(Objects::nonNull).sorted().collect(Collectors.toList());
+    List<String> distinct = new ArrayList<>(sorted.size());
+    for (String prefix : sorted) {
+      if (distinct.isEmpty() || !prefix.startsWith(distinct.get(distinct.size() - 1))) {
+        distinct.add(prefix);
+      }
+    }
+    return distinct;
+  }
+
+  /**
+   * Get all refs whose name starts with the given prefix and with none of {@code excludes}, sorted
+   * by name, see {@link org.eclipse.jgit.lib.RefDatabase#getRefsByPrefixWithExclusions}.
+   * Implementations skip the excluded subtrees rather than collecting their refs and filtering them
+   * out, so that excluding most refs costs nothing.
+   *
+   * @param prefix ref name prefix
+   * @param excludes prefixes of the refs to leave out
+   * @return refs starting with the prefix and none of the excluded prefixes
+   */
+  default List<Ref> getValuesWithPrefixExcluding(String prefix, Collection<String> excludes) {
+    String[] skipped = excludedBelow(prefix, excludes);
+    if (skipped == null) {
+      return new ArrayList<>();
+    }
+    List<Ref> refs = getValuesWithPrefix(prefix);
+    if (skipped.length == 0) {
+      return refs;
+    }
+    return refs.stream()
+        .filter(ref -> Arrays.stream(skipped).noneMatch(ref.getName()::startsWith))
+        .collect(Collectors.toList());
+  }
+
+  /**
+   * Select the excluded prefixes which cut subtrees out of the refs starting with {@code prefix}:
+   * the ones starting with it and longer, without those covered by a shorter one.
+   *
+   * @param prefix ref name prefix
+   * @param excludes prefixes of the refs to leave out
+   * @return the excluded prefixes to skip, sorted, or {@code null} if all refs starting with
+   *     {@code prefix} are excluded
+   */
+  @Nullable
+  static String[] excludedBelow(String prefix, Collection<String> excludes) {
+    List<String> skipped = new ArrayList<>(excludes.size());
+    for (String excluded : excludes.stream().sorted().collect(Collectors.toList())) {
+      if (prefix.startsWith(excluded)) {
+        return null;
+      }
+      if (excluded.startsWith(prefix)
+          && (skipped.isEmpty() || !excluded.startsWith(skipped.get(skipped.size() - 1)))) {
+        skipped.add(excluded);
+      }
+    }
+    return skipped.toArray(new String[0]);
+  }
+
+  /**
+   * Get all refs, sorted by name.
+   *
+   * @return all refs
+   */
+  List<Ref> getAllValues();
+
+  /**
+   * Visit the refs whose name starts with the given prefix, without collecting them: nothing is
+   * allocated per visited ref. The refs are visited in name order, except by a {@link
+   * ShardedRefTree} which visits them namespace by namespace.
+   *
+   * <p>The visitor is called under the read lock of lock-based trees: it must be quick and must not
+   * update the tree.
+   *
+   * @param prefix ref name prefix, empty for all refs
+   * @param visitor called for each ref until it returns {@code false}
+   * @return {@code false} if the visitor stopped the traversal, {@code true} otherwise
+   */
+  boolean visitWithPrefix(String prefix, RefVisitor visitor);
+
+  /**
+   * Visit the refs pointing at the given {@link ObjectId}, without collecting them, in no
+   * particular order. The same restrictions as for {@link #visitWithPrefix} apply to the visitor.
+   *
+   * @param objectId the object id to look up
+   * @param visitor called for each ref until it returns {@code false}
+   * @return {@code false} if the visitor stopped the traversal, {@code true} otherwise
+   */
+  boolean visitByObjectId(ObjectId objectId, RefVisitor visitor);
+
+  /**
+   * Look up all refs pointing at the given {@link ObjectId}, collected by {@link #visitByObjectId}.
+   *
+   * @param objectId the object id to look up
+   * @return unmodifiable set of refs pointing at {@code objectId}
+   */
+  default Set<Ref> getByObjectId(ObjectId objectId) {
+    ImmutableSet.Builder<Ref> refs = ImmutableSet.builder();
+    visitByObjectId(
+        objectId,
+        ref -> {
+          refs.add(ref);
+          return true;
+        });
+    return refs.build();
+  }
+
+  /**
+   * Get the number of refs.
+   *
+   * @return number of refs
+   */
+  int size();
+
+  /**
+   * Get the number of nodes of the tree. Nodes which no longer lead to any ref are removed on
+   * delete, so this only grows with the live refs and not with the ref churn.
+   *
+   * @return number of nodes
+   */
+  int nodeCount();
+
+  /**
+   * Estimate the heap retained by the tree: its nodes, its indexes and the refs it holds. The
+   * estimate is kept up to date as refs are inserted and deleted, so this is cheap to call.
+   *
+   * @return estimated size in bytes
+   */
+  long estimatedBytes();
+
+  private static boolean isSameRef(Ref a, Ref b) {
+    if (a.isSymbolic() || b.isSymbolic()) {
+      return a.isSymbolic()
+          && b.isSymbolic()
+          && a.getTarget().getName().equals(b.getTarget().getName())
+          && isSameRef(a.getTarget(), b.getTarget());
+    }
+    // Updated refs are cached unpeeled, while reftables list them peeled.
+    return Objects.equals(a.getObjectId(), b.getObjectId())
+        && (!a.isPeeled()
+            || !b.isPeeled()
+            || Objects.equals(a.getPeeledObjectId(), b.getPeeledObjectId()));
+  }
+}
@@ -0,0 +1,72 @@
+// Copyright (C) 2026 GerritForge, Inc.
+//
+// Licensed under the BSL 1.1 (the "License");
+// you may not use this file except in compliance with the License.
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.gerritforge.gerrit.plugins.cachedrefdb;
+
+import static com.gerritforge.gerrit.plugins.cachedrefdb.RefDatabaseCacheImpl.REF_NAMES_BY_PROJECT;
+
+import com.google.common.cache.Cache;
+import com.google.gerrit.metrics.CallbackMetric1;
+import com.google.gerrit.metrics.Description;
+import com.google.gerrit.metrics.Field;
+import com.google.gerrit.metrics.MetricMaker;
+import com.google.gerrit.server.logging.Metadata;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+
+/** Size of the ref tree of each project held in the {@code ref_names_by_project} cache. */
+@Singleton
+class RefTreeMetrics {
+
+  @Inject
+  RefTreeMetrics(
+      MetricMaker metricMaker,
+      @Named(REF_NAMES_BY_PROJECT) Cache<String, ProjectRefs> refNamesByProject) {
+    Field<String> projectField =
+        Field.ofString("project_name", Metadata.Builder::projectName)
+            .description("Name of the project")
+            .build();
+    CallbackMetric1<String, Long> nodes =
+        metricMaker.newCallbackMetric(
+            "cached_refdb/ref_tree_nodes",
+            Long.class,
+            new Description("Number of nodes of the cached ref tree of a project")
+                .setGauge()
+                .setUnit("nodes"),
+            projectField);
+    CallbackMetric1<String, Long> refs =
+        metricMaker.newCallbackMetric(
+            "cached_refdb/ref_tree_refs",
+            Long.class,
+            new Description("Number of refs in the cached ref tree of a project")
+                .setGauge()
+                .setUnit("refs"),
+            projectField);
+    metricMaker.newTrigger(
+        nodes,
+        refs,
+        () -> {
+          refNamesByProject
+              .asMap()
+              .forEach(
+                  (project, projectRefs) -> {
+                    if (!projectRefs.isRestored()) {
+                      RefTree tree = projectRefs.tree();
+                      nodes.set(project, (long) tree.nodeCount());
+                      refs.set(project, (long) tree.size());
+                    }
+                  });
+          nodes.prune();
+          refs.prune();
+        });
+  }
+}
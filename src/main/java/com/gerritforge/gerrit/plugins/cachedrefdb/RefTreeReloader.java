@@ -0,0 +1,109 @@
+// Copyright (C) 2026 GerritForge, Inc.
+//
+// Licensed under the BSL 1.1 (the "License");
+// you may not use this file except in compliance with the License.
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.gerritforge.gerrit.plugins.cachedrefdb;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.flogger.FluentLogger;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.metrics.Counter0;
+import com.google.gerrit.metrics.Description;
+import com.google.gerrit.metrics.MetricMaker;
+import com.google.gerrit.metrics.Timer0;
+import com.google.gerrit.server.git.LocalDiskRepositoryManager;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.io.IOException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import org.eclipse.jgit.lib.RefDatabase;
+import org.eclipse.jgit.lib.Repository;
+
+/**
+ * Runs the background reloads of the refs of projects served stale by {@link RefDatabaseCacheImpl}
+ * meanwhile, see {@link CachedRefDbConfig#getMaxStaleness()}.
+ *
+ * <p>Each reload opens its own repository: the ref database of the request which triggered it may
+ * be closed before the reload is done.
+ */
+@Singleton
+class RefTreeReloader {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  interface RepositoryOpener {
+    Repository open(String project) throws IOException;
+  }
+
+  interface Reload {
+    void run(RefDatabase refDatabase) throws IOException;
+  }
+
+  private final RepositoryOpener opener;
+  private final Executor executor;
+  private final Timer0 reloadLatency;
+  private final Counter0 staleReads;
+
+  @Inject
+  RefTreeReloader(LocalDiskRepositoryManager repoManager, MetricMaker metricMaker) {
+    this(
+        project -> repoManager.openRepository(Project.nameKey(project)),
+        Executors.newFixedThreadPool(
+            Math.max(1, Runtime.getRuntime().availableProcessors() / 2),
+            new ThreadFactoryBuilder()
+                .setNameFormat("CachedRefDbReload-%d")
+                .setDaemon(true)
+                .build()),
+        metricMaker);
+  }
+
+  @VisibleForTesting
+  RefTreeReloader(RepositoryOpener opener, Executor executor, MetricMaker metricMaker) {
+    this.opener = opener;
+    this.executor = executor;
+    this.reloadLatency =
+        metricMaker.newTimer(
+            "cached_refdb/stale_reload_latency",
+            new Description("Time to reload the refs of a project served stale meanwhile")
+                .setCumulative()
+                .setUnit(Description.Units.MILLISECONDS));
+    this.staleReads =
+        metricMaker.newCounter(
+            "cached_refdb/stale_reads",
+            new Description("Reads served from stale refs while they were reloaded")
+                .setRate()
+                .setUnit("reads"));
+  }
+
+  /**
+   * Reload the refs of a project in the background.
+   *
+   * @param project project name
+   * @param reload reads the refs from the ref database of the project
+   * @param onFailure called if the reload failed
+   */
+  void reload(String project, Reload reload, Runnable onFailure) {
+    executor.execute(
+        () -> {
+          try (Timer0.Context ignored = reloadLatency.start();
+              Repository repo = opener.open(project)) {
+            reload.run(repo.getRefDatabase());
+          } catch (IOException | RuntimeException e) {
+            logger.atWarning().withCause(e).log("Cannot reload the refs of %s", project);
+            onFailure.run();
+          }
+        });
+  }
+
+  void staleRead() {
+    staleReads.increment();
+  }
+}
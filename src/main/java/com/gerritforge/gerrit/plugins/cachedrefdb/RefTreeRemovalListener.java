@@ -0,0 +1,51 @@
+// Copyright (C) 2026 GerritForge, Inc.
+//
+// Licensed under the BSL 1.1 (the "License");
+// you may not use this file except in compliance with the License.
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.gerritforge.gerrit.plugins.cachedrefdb;
+
+import static com.gerritforge.gerrit.plugins.cachedrefdb.RefDatabaseCacheImpl.REF_NAMES_BY_PROJECT;
+
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalNotification;
+import com.google.gerrit.server.cache.CacheRemovalListener;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+/**
+ * Keeps serving the refs of projects invalidated or expired from the {@code ref_names_by_project}
+ * cache while they are reloaded, see {@link RefDatabaseCacheImpl#keepServingStale}.
+ *
+ * <p>Entries evicted for size are not kept, or the cache would never shrink below its limit, nor
+ * are entries the cache discarded itself, see {@link ProjectRefs#discard()}.
+ */
+@Singleton
+class RefTreeRemovalListener implements CacheRemovalListener<String, ProjectRefs> {
+  private final RefDatabaseCacheImpl refsCache;
+
+  @Inject
+  RefTreeRemovalListener(RefDatabaseCacheImpl refsCache) {
+    this.refsCache = refsCache;
+  }
+
+  @Override
+  public void onRemoval(
+      String pluginName, String cacheName, RemovalNotification<String, ProjectRefs> notification) {
+    if (!REF_NAMES_BY_PROJECT.equals(cacheName)
+        || notification.getKey() == null
+        || notification.getValue() == null) {
+      return;
+    }
+    RemovalCause cause = notification.getCause();
+    if (cause == RemovalCause.EXPLICIT || cause == RemovalCause.EXPIRED) {
+      refsCache.keepServingStale(notification.getKey(), notification.getValue());
+    }
+  }
+}
@@ -0,0 +1,100 @@
+// Copyright (C) 2026 GerritForge, Inc.
+//
+// Licensed under the BSL 1.1 (the "License");
+// you may not use this file except in compliance with the License.
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.gerritforge.gerrit.plugins.cachedrefdb;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import org.eclipse.jgit.lib.Ref;
+
+/** Data structures available for holding the refs of a project. */
+enum RefTreeType {
+  /** One node per character of every ref name, see {@link RefTernarySearchTree}. */
+  TERNARY {
+    @Override
+    RefTree newTree() {
+      return new RefTernarySearchTree();
+    }
+  },
+
+  /** Path-compressed tree with one node per distinct ref name segment, see {@link RefRadixTree}. */
+  RADIX {
+    @Override
+    RefTree newTree() {
+      return new RefRadixTree();
+    }
+
+    @Override
+    RefTree build(List<Ref> refs) {
+      // Children are kept sorted by the node itself, the insertion order does not matter.
+      RefTree tree = newTree();
+      for (Ref ref : refs) {
+        tree.insert(ref.getName(), ref);
+      }
+      return tree;
+    }
+  },
+
+  /** Immutable ternary search tree read without locking, see {@link PersistentRefTree}. */
+  PERSISTENT {
+    @Override
+    RefTree newTree() {
+      return new PersistentRefTree();
+    }
+  };
+
+  private static final Comparator<Ref> BY_NAME = Comparator.comparing(Ref::getName);
+
+  abstract RefTree newTree();
+
+  /**
+   * Create a tree holding all {@code refs}.
+   *
+   * <p>Ternary search trees fed keys in sorted order, as returned by {@link
+   * org.eclipse.jgit.lib.RefDatabase#getRefs()}, degenerate into long lo/hi chains. The refs are
+   * therefore inserted median first: the middle ref of the sorted list, then recursively the middle
+   * refs of each half, which keeps every level of the tree balanced.
+   *
+   * @param refs refs to add, preferably sorted by name
+   * @return a new tree holding {@code refs}
+   */
+  RefTree build(List<Ref> refs) {
+    List<Ref> sorted = refs;
+    if (!isSorted(refs)) {
+      sorted = new ArrayList<>(refs);
+      sorted.sort(BY_NAME);
+    }
+    RefTree tree = newTree();
+    insertMedianFirst(tree, sorted, 0, sorted.size());
+    return tree;
+  }
+
+  private static void insertMedianFirst(RefTree tree, List<Ref> sorted, int from, int to) {
+    if (from >= to) {
+      return;
+    }
+    int mid = (from + to) >>> 1;
+    Ref ref = sorted.get(mid);
+    tree.insert(ref.getName(), ref);
+    insertMedianFirst(tree, sorted, from, mid);
+    insertMedianFirst(tree, sorted, mid + 1, to);
+  }
+
+  private static boolean isSorted(List<Ref> refs) {
+    for (int i = 1; i < refs.size(); i++) {
+      if (BY_NAME.compare(refs.get(i - 1), refs.get(i)) > 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
@@ -0,0 +1,158 @@
+// Copyright (C) 2026 GerritForge, Inc.
+//
+// Licensed under the BSL 1.1 (the "License");
+// you may not use this file except in compliance with the License.
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.gerritforge.gerrit.plugins.cachedrefdb;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Stopwatch;
+import com.google.common.flogger.FluentLogger;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.extensions.events.LifecycleListener;
+import com.google.gerrit.server.config.SitePaths;
+import com.google.gerrit.server.git.LocalDiskRepositoryManager;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+import org.eclipse.jgit.lib.Repository;
+
+/**
+ * Loads the refs of selected projects in the {@code ref_names_by_project} cache at startup, on a
+ * bounded pool of threads, so that the first requests to these projects don't pay for it.
+ *
+ * <p>The projects are the most accessed ones of the previous run, as saved on stop, followed by
+ * the ones matching the configured names or patterns. Startup waits for the warm-up up to a
+ * configurable timeout, after which the remaining projects are loaded in the background.
+ */
+@Singleton
+class RefTreeWarmUp implements LifecycleListener {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  @VisibleForTesting static final String MOST_ACCESSED_PROJECTS = "cached-refdb-top-projects";
+
+  private final CachedRefDbConfig config;
+  private final RefDatabaseCacheImpl refsCache;
+  private final LocalDiskRepositoryManager repoManager;
+  private final Path mostAccessedProjectsFile;
+  private ExecutorService pool;
+
+  @Inject
+  RefTreeWarmUp(
+      CachedRefDbConfig config,
+      RefDatabaseCacheImpl refsCache,
+      LocalDiskRepositoryManager repoManager,
+      SitePaths sitePaths) {
+    this.config = config;
+    this.refsCache = refsCache;
+    this.repoManager = repoManager;
+    this.mostAccessedProjectsFile = sitePaths.data_dir.resolve(MOST_ACCESSED_PROJECTS);
+  }
+
+  @Override
+  public void start() {
+    Set<String> projects = projectsToWarmUp();
+    if (projects.isEmpty()) {
+      return;
+    }
+    logger.atInfo().log(
+        "Warming up the refs of %d projects with %d threads",
+        projects.size(), config.getWarmUpThreads());
+    pool =
+        Executors.newFixedThreadPool(
+            config.getWarmUpThreads(),
+            new ThreadFactoryBuilder()
+                .setNameFormat("CachedRefDbWarmUp-%d")
+                .setDaemon(true)
+                .build());
+    Stopwatch elapsed = Stopwatch.createStarted();
+    AtomicInteger done = new AtomicInteger();
+    int progressStep = Math.max(1, projects.size() / 10);
+    for (String project : projects) {
+      pool.execute(
+          () -> {
+            warmUp(project);
+            int count = done.incrementAndGet();
+            if (count % progressStep == 0 || count == projects.size()) {
+              logger.atInfo().log(
+                  "Warmed up the refs of %d/%d projects in %s", count, projects.size(), elapsed);
+            }
+          });
+    }
+    pool.shutdown();
+    try {
+      if (!pool.awaitTermination(config.getWarmUpTimeout().toMillis(), TimeUnit.MILLISECONDS)) {
+        logger.atWarning().log(
+            "Warm-up not complete after %s (%d/%d projects), continuing in the background",
+            elapsed, done.get(), projects.size());
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  @Override
+  public void stop() {
+    if (pool != null) {
+      pool.shutdownNow();
+    }
+    int top = config.getWarmUpTopProjects();
+    if (top > 0) {
+      try {
+        Files.createDirectories(mostAccessedProjectsFile.getParent());
+        Files.write(mostAccessedProjectsFile, refsCache.mostAccessedProjects(top));
+      } catch (IOException e) {
+        logger.atWarning().withCause(e).log(
+            "Cannot save the most accessed projects to %s", mostAccessedProjectsFile);
+      }
+    }
+  }
+
+  private Set<String> projectsToWarmUp() {
+    Set<String> projects = new LinkedHashSet<>();
+    int top = config.getWarmUpTopProjects();
+    if (top > 0 && Files.exists(mostAccessedProjectsFile)) {
+      try {
+        List<String> mostAccessed =
+            Files.readAllLines(mostAccessedProjectsFile, StandardCharsets.UTF_8);
+        projects.addAll(mostAccessed.subList(0, Math.min(top, mostAccessed.size())));
+      } catch (IOException e) {
+        logger.atWarning().withCause(e).log(
+            "Cannot read the most accessed projects from %s", mostAccessedProjectsFile);
+      }
+    }
+    List<String> patterns = config.getWarmUpProjects();
+    if (!patterns.isEmpty()) {
+      Predicate<String> matcher = ProjectPatterns.anyOf(patterns);
+      repoManager.list().stream().map(Project.NameKey::get).filter(matcher).forEach(projects::add);
+    }
+    return projects;
+  }
+
+  private void warmUp(String project) {
+    try (Repository repo = repoManager.openRepository(Project.nameKey(project))) {
+      refsCache.warmUp(project, repo.getRefDatabase());
+    } catch (IOException | ExecutionException | RuntimeException e) {
+      logger.atWarning().withCause(e).log("Cannot warm up the refs of %s", project);
+    }
+  }
+}
@@ -0,0 +1,30 @@
+// Copyright (C) 2026 GerritForge, Inc.
+//
+// Licensed under the BSL 1.1 (the "License");
+// you may not use this file except in compliance with the License.
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.gerritforge.gerrit.plugins.cachedrefdb;
+
+import com.google.common.cache.Weigher;
+import com.google.common.primitives.Ints;
+
+/**
+ * Weighs the entries of the {@code ref_names_by_project} cache by their estimated heap size in
+ * bytes, so that its {@code memoryLimit} is expressed in bytes rather than in number of projects.
+ * The size of each entry is recorded as it is weighed, see {@link ProjectRefs#needsReweigh()}.
+ */
+class RefTreeWeigher implements Weigher<String, ProjectRefs> {
+
+  @Override
+  public int weigh(String project, ProjectRefs refs) {
+    long bytes = refs.estimatedBytes();
+    refs.weighed(bytes);
+    return Ints.saturatedCast(RefSizeEstimator.stringBytes(project) + bytes);
+  }
+}
@@ -15,6 +15,7 @@ import com.google.inject.assistedinject.Assisted;
 import java.io.IOException;
 import java.util.EnumSet;
 import java.util.concurrent.ExecutionException;
+import org.eclipse.jgit.annotations.Nullable;
 import org.eclipse.jgit.lib.AnyObjectId;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.PersonIdent;
@@ -152,17 +153,17 @@ class RefUpdateWithCacheUpdate extends RefUpdate {
 
   @Override
   public Result forceUpdate() throws IOException {
-    return refreshCachesOnSuccessfulUpdate(delegate.forceUpdate());
+    return refreshCachesOnSuccessfulUpdate(delegate.forceUpdate(), delegate.getNewObjectId());
   }
 
   @Override
   public Result update() throws IOException {
-    return refreshCachesOnSuccessfulUpdate(delegate.update());
+    return refreshCachesOnSuccessfulUpdate(delegate.update(), delegate.getNewObjectId());
   }
 
   @Override
   public Result update(RevWalk walk) throws IOException {
-    return refreshCachesOnSuccessfulUpdate(delegate.update(walk));
+    return refreshCachesOnSuccessfulUpdate(delegate.update(walk), delegate.getNewObjectId());
   }
 
   @Override
@@ -177,7 +178,7 @@ class RefUpdateWithCacheUpdate extends RefUpdate {
 
   @Override
   public Result link(String target) throws IOException {
-    return refreshCachesOnSuccessfulUpdate(delegate.link(target));
+    return refreshCachesOnSuccessfulUpdate(delegate.link(target), null);
   }
 
   @Override
@@ -232,9 +233,10 @@ class RefUpdateWithCacheUpdate extends RefUpdate {
     }
   }
 
-  private Result refreshCachesOnSuccessfulUpdate(Result r) throws IOException {
+  private Result refreshCachesOnSuccessfulUpdate(Result r, @Nullable ObjectId newId)
+      throws IOException {
     if (SUCCESSFUL_UPDATES.contains(r)) {
-      refsCache.updateRef(repo.getProjectName(), getName(), delegateRefDb);
+      refsCache.updateRef(repo.getProjectName(), getName(), newId, delegateRefDb);
     }
     return r;
   }
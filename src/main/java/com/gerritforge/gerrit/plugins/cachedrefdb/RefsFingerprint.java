@@ -0,0 +1,176 @@
+// Copyright (C) 2026 GerritForge, Inc.
+//
+// Licensed under the BSL 1.1 (the "License");
+// you may not use this file except in compliance with the License.
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.gerritforge.gerrit.plugins.cachedrefdb;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.flogger.FluentLogger;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Objects;
+import org.eclipse.jgit.annotations.Nullable;
+import org.eclipse.jgit.lib.Constants;
+
+/**
+ * Cheap fingerprint of the refs of a repository on disk, made of the file attributes of the
+ * reftable stack or, for a ref directory, of the {@code packed-refs} file, of {@code HEAD} and of
+ * every directory under {@code refs/}.
+ *
+ * <p>Git updates refs by renaming a lock file over them, which changes the modification time of the
+ * directory holding the loose ref, of {@code packed-refs} or of the reftable {@code tables.list}.
+ * Two equal fingerprints therefore mean that the refs did not change in between, and computing one
+ * only costs one stat per directory instead of reading every ref.
+ *
+ * <p>A change made within {@link #RACY_WINDOW} of the fingerprint may not be visible in the file
+ * timestamps yet: such a fingerprint is {@link #UNKNOWN}.
+ */
+final class RefsFingerprint {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  /** Fingerprint of refs in an unknown state, which doesn't match any other fingerprint. */
+  static final RefsFingerprint UNKNOWN = new RefsFingerprint(null);
+
+  /** Coarsest file timestamp resolution we may run on: 2s on FAT, 1s on ext3 and older NFS. */
+  private static final Duration RACY_WINDOW = Duration.ofMillis(2500);
+
+  @Nullable private final byte[] hash;
+
+  private RefsFingerprint(@Nullable byte[] hash) {
+    this.hash = hash;
+  }
+
+  /**
+   * Fingerprint the refs of the repository in {@code gitDir}.
+   *
+   * @param gitDir git directory of the repository, {@code null} if the repository is not on disk
+   * @return the fingerprint, {@link #UNKNOWN} if it cannot be computed reliably
+   */
+  static RefsFingerprint of(@Nullable File gitDir) {
+    return of(gitDir, Instant.now());
+  }
+
+  @VisibleForTesting
+  static RefsFingerprint of(@Nullable File gitDir, Instant now) {
+    if (gitDir == null) {
+      return UNKNOWN;
+    }
+    Instant racyAfter = now.minus(RACY_WINDOW);
+    Hasher hasher = Hashing.murmur3_128().newHasher();
+    Path dir = gitDir.toPath();
+    try {
+      Path tablesList = dir.resolve(Constants.REFTABLE).resolve(Constants.TABLES_LIST);
+      boolean racy;
+      if (Files.exists(tablesList)) {
+        racy = hash(hasher, dir, tablesList, racyAfter);
+      } else {
+        racy = hash(hasher, dir, dir.resolve(Constants.PACKED_REFS), racyAfter);
+        racy |= hash(hasher, dir, dir.resolve(Constants.HEAD), racyAfter);
+        racy |= hashDirectories(hasher, dir, dir.resolve(Constants.R_REFS), racyAfter);
+      }
+      return racy ? UNKNOWN : new RefsFingerprint(hasher.hash().asBytes());
+    } catch (IOException e) {
+      logger.atWarning().withCause(e).log("Cannot fingerprint the refs of %s", gitDir);
+      return UNKNOWN;
+    }
+  }
+
+  /**
+   * Restore a fingerprint from its serialized form.
+   *
+   * @param bytes the fingerprint as returned by {@link #toBytes()}
+   * @return the fingerprint
+   */
+  static RefsFingerprint fromBytes(byte[] bytes) {
+    return bytes.length == 0 ? UNKNOWN : new RefsFingerprint(bytes.clone());
+  }
+
+  /**
+   * Serialize the fingerprint.
+   *
+   * @return the fingerprint as bytes, empty for {@link #UNKNOWN}
+   */
+  byte[] toBytes() {
+    return hash != null ? hash.clone() : new byte[0];
+  }
+
+  /**
+   * Check whether the refs are known to be unchanged between the two fingerprints.
+   *
+   * @param other fingerprint to compare with
+   * @return {@code true} if neither fingerprint is {@link #UNKNOWN} and they are equal
+   */
+  boolean matches(RefsFingerprint other) {
+    return hash != null && Arrays.equals(hash, other.hash);
+  }
+
+  @Override
+  public String toString() {
+    return hash != null ? HashCode.fromBytes(hash).toString() : "UNKNOWN";
+  }
+
+  /** Add the attributes of {@code file} to the fingerprint. Returns whether they are racy. */
+  private static boolean hash(Hasher hasher, Path dir, Path file, Instant racyAfter)
+      throws IOException {
+    hasher.putString(dir.relativize(file).toString(), StandardCharsets.UTF_8);
+    BasicFileAttributes attributes;
+    try {
+      attributes = Files.readAttributes(file, BasicFileAttributes.class);
+    } catch (NoSuchFileException e) {
+      hasher.putBoolean(false);
+      return false;
+    }
+    hasher.putBoolean(true);
+    return hash(hasher, attributes, racyAfter);
+  }
+
+  /** Add the attributes of every directory under {@code root} to the fingerprint. */
+  private static boolean hashDirectories(Hasher hasher, Path dir, Path root, Instant racyAfter)
+      throws IOException {
+    if (!Files.isDirectory(root)) {
+      return false;
+    }
+    boolean[] racy = {false};
+    Files.walkFileTree(
+        root,
+        new SimpleFileVisitor<>() {
+          @Override
+          public FileVisitResult preVisitDirectory(Path path, BasicFileAttributes attributes) {
+            hasher.putString(dir.relativize(path).toString(), StandardCharsets.UTF_8);
+            racy[0] |= hash(hasher, attributes, racyAfter);
+            return FileVisitResult.CONTINUE;
+          }
+        });
+    return racy[0];
+  }
+
+  private static boolean hash(Hasher hasher, BasicFileAttributes attributes, Instant racyAfter) {
+    Instant lastModified = attributes.lastModifiedTime().toInstant();
+    hasher
+        .putLong(lastModified.getEpochSecond())
+        .putInt(lastModified.getNano())
+        .putLong(attributes.size())
+        .putInt(Objects.hashCode(attributes.fileKey()));
+    return lastModified.isAfter(racyAfter);
+  }
+}
@@ -0,0 +1,53 @@
+// Copyright (C) 2026 GerritForge, Inc.
+//
+// Licensed under the BSL 1.1 (the "License");
+// you may not use this file except in compliance with the License.
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.gerritforge.gerrit.plugins.cachedrefdb;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.server.git.LocalDiskRepositoryManager;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.io.File;
+import java.nio.file.Path;
+import java.util.function.Function;
+import org.eclipse.jgit.annotations.Nullable;
+import org.eclipse.jgit.lib.RepositoryCache.FileKey;
+import org.eclipse.jgit.util.FS;
+
+/** Computes the {@link RefsFingerprint} of the refs of the projects hosted on the local disk. */
+@Singleton
+class RefsFingerprinter {
+  private final Function<String, File> gitDirs;
+
+  @Inject
+  RefsFingerprinter(LocalDiskRepositoryManager repoManager) {
+    this(project -> gitDir(repoManager, project));
+  }
+
+  @VisibleForTesting
+  RefsFingerprinter(Function<String, File> gitDirs) {
+    this.gitDirs = gitDirs;
+  }
+
+  RefsFingerprint fingerprint(String project) {
+    return RefsFingerprint.of(gitDirs.apply(project));
+  }
+
+  @Nullable
+  private static File gitDir(LocalDiskRepositoryManager repoManager, String project) {
+    Path basePath = repoManager.getBasePath(Project.nameKey(project));
+    if (basePath == null) {
+      return null;
+    }
+    return FileKey.resolve(basePath.resolve(project).toFile(), FS.DETECTED);
+  }
+}
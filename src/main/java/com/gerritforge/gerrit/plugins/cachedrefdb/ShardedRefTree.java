@@ -0,0 +1,552 @@
+// Copyright (C) 2026 GerritForge, Inc.
+//
+// Licensed under the BSL 1.1 (the "License");
+// you may not use this file except in compliance with the License.
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.gerritforge.gerrit.plugins.cachedrefdb;
+
+import com.google.common.collect.Iterators;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.ToIntFunction;
+import org.eclipse.jgit.annotations.Nullable;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+
+/**
+ * A {@link RefTree} split into one tree per top-level {@link RefNamespace}, each with its own lock
+ * and {@link ObjectId} index, so that e.g. a write to {@code refs/changes/} does not contend with
+ * reads of {@code refs/heads/} or {@code refs/meta/config}.
+ *
+ * <p>Lookups and updates of a single ref only involve the shard of its namespace. Prefix queries
+ * only visit the shards which may hold matching refs, and merge their results by name.
+ *
+ * <p>Each shard also has a lock of its own, held for writing by every update of the shard: a batch
+ * update or a rename across namespaces holds the locks of all the shards it changes, and a lookup
+ * of refs of several namespaces holds them for reading, so that it sees none or all of an update.
+ * The locks are always taken in the order of the namespaces. Prefix queries and visits across
+ * namespaces still read each shard independently.
+ *
+ * <p>A {@link #lazy} tree starts empty and each namespace is loaded on demand, see {@link #load}:
+ * callers must load the namespaces they read. Updates of refs in a namespace not loaded yet are
+ * ignored, as they are read from the repository along with the namespace.
+ */
+class ShardedRefTree implements RefTree {
+  private static final Comparator<Ref> BY_NAME = Comparator.comparing(Ref::getName);
+  private static final RefNamespace[] NAMESPACES = RefNamespace.values();
+
+  /** Lists the refs of a namespace of a lazy tree, see {@link #load}. */
+  interface NamespaceLoader {
+    List<Ref> load(RefNamespace namespace) throws IOException;
+  }
+
+  /**
+   * Load state of a namespace of a lazy tree. Loading takes the write lock, so that the updates of
+   * the namespace, under the read lock, are either included in its listing or applied after it.
+   */
+  private static final class LazyNamespace {
+    final ReadWriteLock lock = new ReentrantReadWriteLock();
+    volatile boolean loaded;
+  }
+
+  private final RefTreeType treeType;
+  private final RefTree[] shards = new RefTree[NAMESPACES.length];
+  private final ReadWriteLock[] locks = new ReadWriteLock[NAMESPACES.length];
+  @Nullable private final LazyNamespace[] lazy;
+
+  private ShardedRefTree(RefTreeType treeType, Map<RefNamespace, RefTree> shards, boolean lazy) {
+    this.treeType = treeType;
+    for (RefNamespace namespace : NAMESPACES) {
+      this.shards[namespace.ordinal()] = shards.get(namespace);
+      this.locks[namespace.ordinal()] = new ReentrantReadWriteLock();
+    }
+    if (lazy) {
+      this.lazy = new LazyNamespace[NAMESPACES.length];
+      for (int i = 0; i < NAMESPACES.length; i++) {
+        this.lazy[i] = new LazyNamespace();
+      }
+    } else {
+      this.lazy = null;
+    }
+  }
+
+  /**
+   * Create a sharded tree holding all {@code refs}.
+   *
+   * @param treeType type of the tree of each shard
+   * @param refs refs to add, preferably sorted by name
+   * @return a new tree holding {@code refs}
+   */
+  static ShardedRefTree build(RefTreeType treeType, List<Ref> refs) {
+    Map<RefNamespace, RefTree> shards = new EnumMap<>(RefNamespace.class);
+    byNamespace(refs)
+        .forEach((namespace, nsRefs) -> shards.put(namespace, treeType.build(nsRefs)));
+    return new ShardedRefTree(treeType, shards, false);
+  }
+
+  /**
+   * Create an empty sharded tree whose namespaces are loaded on demand.
+   *
+   * @param treeType type of the tree of each shard
+   * @return a new tree with no namespace loaded
+   */
+  static ShardedRefTree lazy(RefTreeType treeType) {
+    Map<RefNamespace, RefTree> shards = new EnumMap<>(RefNamespace.class);
+    for (RefNamespace namespace : NAMESPACES) {
+      shards.put(namespace, treeType.newTree());
+    }
+    return new ShardedRefTree(treeType, shards, true);
+  }
+
+  private static Map<RefNamespace, List<Ref>> byNamespace(List<Ref> refs) {
+    Map<RefNamespace, List<Ref>> refsByNamespace = new EnumMap<>(RefNamespace.class);
+    for (RefNamespace namespace : NAMESPACES) {
+      refsByNamespace.put(namespace, new ArrayList<>());
+    }
+    for (Ref ref : refs) {
+      refsByNamespace.get(RefNamespace.of(ref.getName())).add(ref);
+    }
+    return refsByNamespace;
+  }
+
+  /**
+   * Load the namespaces which may hold refs starting with one of {@code prefixes}, if not loaded
+   * yet. Does nothing if the tree is not lazy.
+   *
+   * @param prefixes ref name prefixes, or full ref names, about to be read
+   * @param loader lists the refs of a namespace
+   * @return whether any namespace was loaded
+   * @throws IOException if the refs of a namespace cannot be listed, it is then left unloaded
+   */
+  boolean load(Collection<String> prefixes, NamespaceLoader loader) throws IOException {
+    if (lazy == null) {
+      return false;
+    }
+    boolean loadedAny = false;
+    for (RefNamespace namespace : NAMESPACES) {
+      LazyNamespace state = lazy[namespace.ordinal()];
+      if (state.loaded || !mayContainAny(namespace, prefixes)) {
+        continue;
+      }
+      state.lock.writeLock().lock();
+      try {
+        if (!state.loaded) {
+          shards[namespace.ordinal()] = treeType.build(loader.load(namespace));
+          state.loaded = true;
+          loadedAny = true;
+        }
+      } finally {
+        state.lock.writeLock().unlock();
+      }
+    }
+    return loadedAny;
+  }
+
+  private static boolean mayContainAny(RefNamespace namespace, Collection<String> prefixes) {
+    return prefixes.stream().anyMatch(prefix -> prefix != null && namespace.mayContain(prefix));
+  }
+
+  /**
+   * Check whether the tree holds all refs: always for a tree which is not lazy.
+   *
+   * @return whether all namespaces are loaded
+   */
+  boolean isFullyLoaded() {
+    if (lazy != null) {
+      for (LazyNamespace state : lazy) {
+        if (!state.loaded) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  boolean isLoaded(RefNamespace namespace) {
+    return lazy == null || lazy[namespace.ordinal()].loaded;
+  }
+
+  private RefTree shard(String refName) {
+    return shards[RefNamespace.of(refName).ordinal()];
+  }
+
+  /** Apply an update to the shard of a namespace, unless it is not loaded yet. */
+  private int update(RefNamespace namespace, ToIntFunction<RefTree> update) {
+    Lock lock = locks[namespace.ordinal()].writeLock();
+    lock.lock();
+    try {
+      if (lazy == null) {
+        return update.applyAsInt(shards[namespace.ordinal()]);
+      }
+      LazyNamespace state = lazy[namespace.ordinal()];
+      state.lock.readLock().lock();
+      try {
+        return state.loaded ? update.applyAsInt(shards[namespace.ordinal()]) : 0;
+      } finally {
+        state.lock.readLock().unlock();
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Lock the shards of {@code namespaces}, in the order of the namespaces so that two callers
+   * locking several shards never deadlock.
+   *
+   * @param namespaces namespaces of the shards to lock, iterated in the order of the namespaces
+   * @param write whether to lock them for writing rather than reading
+   */
+  private void lock(Set<RefNamespace> namespaces, boolean write) {
+    for (RefNamespace namespace : namespaces) {
+      lock(namespace, write).lock();
+    }
+  }
+
+  private void unlock(Set<RefNamespace> namespaces, boolean write) {
+    for (RefNamespace namespace : namespaces) {
+      lock(namespace, write).unlock();
+    }
+  }
+
+  private Lock lock(RefNamespace namespace, boolean write) {
+    ReadWriteLock lock = locks[namespace.ordinal()];
+    return write ? lock.writeLock() : lock.readLock();
+  }
+
+  /** Get the shards which may hold refs starting with {@code prefix}. */
+  private List<RefTree> shardsFor(String prefix) {
+    List<RefTree> result = new ArrayList<>(NAMESPACES.length);
+    for (RefNamespace namespace : NAMESPACES) {
+      if (namespace.mayContain(prefix)) {
+        result.add(shards[namespace.ordinal()]);
+      }
+    }
+    return result;
+  }
+
+  @Override
+  @Nullable
+  public Ref get(String refName) {
+    return shard(refName).get(refName);
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>The refs of each namespace are read at once, under the read locks of all the shards
+   * involved.
+   */
+  @Override
+  public Map<String, Ref> getAll(String... refNames) {
+    Map<RefNamespace, List<String>> byNamespace = new EnumMap<>(RefNamespace.class);
+    for (String refName : refNames) {
+      byNamespace.computeIfAbsent(RefNamespace.of(refName), n -> new ArrayList<>()).add(refName);
+    }
+    if (byNamespace.size() <= 1) {
+      return byNamespace.isEmpty() ? new LinkedHashMap<>() : shard(refNames[0]).getAll(refNames);
+    }
+    Map<String, Ref> found = new HashMap<>();
+    lock(byNamespace.keySet(), false);
+    try {
+      byNamespace.forEach(
+          (namespace, names) ->
+              found.putAll(shards[namespace.ordinal()].getAll(names.toArray(new String[0]))));
+    } finally {
+      unlock(byNamespace.keySet(), false);
+    }
+    Map<String, Ref> refs = new LinkedHashMap<>();
+    for (String refName : refNames) {
+      Ref ref = found.get(refName);
+      if (ref != null) {
+        refs.put(refName, ref);
+      }
+    }
+    return refs;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>The refs are looked up under the read locks of all the shards involved.
+   */
+  @Override
+  @Nullable
+  public Ref getFirst(String... refNames) {
+    Set<RefNamespace> namespaces = EnumSet.noneOf(RefNamespace.class);
+    for (String refName : refNames) {
+      namespaces.add(RefNamespace.of(refName));
+    }
+    if (namespaces.size() <= 1) {
+      return namespaces.isEmpty() ? null : shard(refNames[0]).getFirst(refNames);
+    }
+    lock(namespaces, false);
+    try {
+      for (String refName : refNames) {
+        Ref ref = shard(refName).get(refName);
+        if (ref != null) {
+          return ref;
+        }
+      }
+      return null;
+    } finally {
+      unlock(namespaces, false);
+    }
+  }
+
+  @Override
+  public boolean contains(String refName) {
+    return shard(refName).contains(refName);
+  }
+
+  @Override
+  public int insert(String refName, Ref ref) {
+    update(RefNamespace.of(refName), shard -> shard.insert(refName, ref));
+    return size();
+  }
+
+  @Override
+  public int delete(String refName) {
+    update(RefNamespace.of(refName), shard -> shard.delete(refName));
+    return size();
+  }
+
+  @Override
+  public void rename(String srcRefName, Ref destRef) {
+    RefNamespace src = RefNamespace.of(srcRefName);
+    RefNamespace dest = RefNamespace.of(destRef.getName());
+    if (src == dest) {
+      update(
+          src,
+          shard -> {
+            shard.rename(srcRefName, destRef);
+            return 0;
+          });
+    } else {
+      Set<RefNamespace> namespaces = EnumSet.of(src, dest);
+      lock(namespaces, true);
+      try {
+        update(dest, shard -> shard.insert(destRef.getName(), destRef));
+        update(src, shard -> shard.delete(srcRefName));
+      } finally {
+        unlock(namespaces, true);
+      }
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>The changes are applied to each shard at once, one shard after the other, holding the write
+   * locks of all the shards changed: lookups see none or all of the changes, but prefix queries and
+   * visits across namespaces may see the changes of some namespaces only.
+   */
+  @Override
+  public int apply(Map<String, Ref> updated, Collection<String> deleted) {
+    Map<RefNamespace, Map<String, Ref>> updatedByNamespace = new EnumMap<>(RefNamespace.class);
+    updated.forEach(
+        (refName, ref) ->
+            updatedByNamespace
+                .computeIfAbsent(RefNamespace.of(refName), n -> new LinkedHashMap<>())
+                .put(refName, ref));
+    Map<RefNamespace, List<String>> deletedByNamespace = new EnumMap<>(RefNamespace.class);
+    for (String refName : deleted) {
+      deletedByNamespace
+          .computeIfAbsent(RefNamespace.of(refName), n -> new ArrayList<>())
+          .add(refName);
+    }
+    Set<RefNamespace> namespaces = EnumSet.noneOf(RefNamespace.class);
+    namespaces.addAll(updatedByNamespace.keySet());
+    namespaces.addAll(deletedByNamespace.keySet());
+    lock(namespaces, true);
+    try {
+      for (RefNamespace namespace : namespaces) {
+        Map<String, Ref> namespaceUpdated = updatedByNamespace.getOrDefault(namespace, Map.of());
+        List<String> namespaceDeleted = deletedByNamespace.getOrDefault(namespace, List.of());
+        update(namespace, shard -> shard.apply(namespaceUpdated, namespaceDeleted));
+      }
+    } finally {
+      unlock(namespaces, true);
+    }
+    return size();
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>Each shard is reconciled with the refs of its namespace, and the namespaces of a lazy tree
+   * which are not loaded yet are left alone.
+   */
+  @Override
+  public int reconcile(List<Ref> refs) {
+    Map<RefNamespace, List<Ref>> refsByNamespace = byNamespace(refs);
+    int changed = 0;
+    for (RefNamespace namespace : NAMESPACES) {
+      changed += update(namespace, shard -> shard.reconcile(refsByNamespace.get(namespace)));
+    }
+    return changed;
+  }
+
+  @Override
+  public List<Ref> getValuesWithPrefix(String prefix) {
+    if (prefix == null) {
+      return new ArrayList<>();
+    }
+    List<RefTree> matching = shardsFor(prefix);
+    if (matching.size() == 1) {
+      return matching.get(0).getValuesWithPrefix(prefix);
+    }
+    List<Iterator<Ref>> values = new ArrayList<>(matching.size());
+    int size = 0;
+    for (RefTree shard : matching) {
+      List<Ref> shardValues = shard.getValuesWithPrefix(prefix);
+      size += shardValues.size();
+      values.add(shardValues.iterator());
+    }
+    List<Ref> merged = new ArrayList<>(size);
+    Iterators.mergeSorted(values, BY_NAME).forEachRemaining(merged::add);
+    return merged;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>The consecutive prefixes falling in the same shard are read from it at once: the refs of the
+   * distinct prefixes, taken in order, are already sorted and need no merging across the shards.
+   */
+  @Override
+  public List<Ref> getValuesWithPrefixes(Collection<String> prefixes) {
+    List<String> distinct = RefTree.distinctPrefixes(prefixes);
+    List<Ref> values = new ArrayList<>();
+    int i = 0;
+    while (i < distinct.size()) {
+      List<RefTree> matching = shardsFor(distinct.get(i));
+      if (matching.size() != 1) {
+        values.addAll(getValuesWithPrefix(distinct.get(i++)));
+        continue;
+      }
+      int end = i + 1;
+      while (end < distinct.size() && shardsFor(distinct.get(end)).equals(matching)) {
+        end++;
+      }
+      List<Ref> shardValues = matching.get(0).getValuesWithPrefixes(distinct.subList(i, end));
+      if (i == 0 && end == distinct.size()) {
+        return shardValues;
+      }
+      values.addAll(shardValues);
+      i = end;
+    }
+    return values;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>The shards of the namespaces covered by an excluded prefix are not read at all.
+   */
+  @Override
+  public List<Ref> getValuesWithPrefixExcluding(String prefix, Collection<String> excludes) {
+    if (prefix == null) {
+      return new ArrayList<>();
+    }
+    List<RefTree> matching = new ArrayList<>(NAMESPACES.length);
+    for (RefNamespace namespace : NAMESPACES) {
+      if (namespace.mayContain(prefix) && excludes.stream().noneMatch(namespace::isCoveredBy)) {
+        matching.add(shards[namespace.ordinal()]);
+      }
+    }
+    if (matching.size() == 1) {
+      return matching.get(0).getValuesWithPrefixExcluding(prefix, excludes);
+    }
+    List<Iterator<Ref>> values = new ArrayList<>(matching.size());
+    int size = 0;
+    for (RefTree shard : matching) {
+      List<Ref> shardValues = shard.getValuesWithPrefixExcluding(prefix, excludes);
+      size += shardValues.size();
+      values.add(shardValues.iterator());
+    }
+    List<Ref> merged = new ArrayList<>(size);
+    Iterators.mergeSorted(values, BY_NAME).forEachRemaining(merged::add);
+    return merged;
+  }
+
+  @Override
+  public List<Ref> getAllValues() {
+    return getValuesWithPrefix("");
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>The shards are visited one after the other, in the order of the namespaces: readers may see
+   * the changes of some namespaces only, as for {@link #apply}.
+   */
+  @Override
+  public boolean visitWithPrefix(String prefix, RefVisitor visitor) {
+    if (prefix == null) {
+      return true;
+    }
+    for (RefTree shard : shardsFor(prefix)) {
+      if (!shard.visitWithPrefix(prefix, visitor)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public boolean visitByObjectId(ObjectId objectId, RefVisitor visitor) {
+    for (RefTree shard : shards) {
+      if (!shard.visitByObjectId(objectId, visitor)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public int size() {
+    int size = 0;
+    for (RefTree shard : shards) {
+      size += shard.size();
+    }
+    return size;
+  }
+
+  @Override
+  public int nodeCount() {
+    int nodes = 0;
+    for (RefTree shard : shards) {
+      nodes += shard.nodeCount();
+    }
+    return nodes;
+  }
+
+  @Override
+  public long estimatedBytes() {
+    long bytes = 0;
+    for (RefTree shard : shards) {
+      bytes += shard.estimatedBytes();
+    }
+    return bytes;
+  }
+}
@@ -11,6 +11,7 @@ package com.gerritforge.gerrit.plugins.cachedrefdb;
 
 import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -47,6 +48,12 @@ public class TernarySearchTree<Value> {
 
 	private static final char WILDCARD = '?';
 
+	private static final byte LO = 0;
+
+	private static final byte EQ = 1;
+
+	private static final byte HI = 2;
+
 	private static class Node<Value> {
 		final char c;
 
@@ -78,7 +85,7 @@ public class TernarySearchTree<Value> {
 		Map<String, Value> loadAll();
 	}
 
-	private static void validateKey(String key) {
+	protected static void validateKey(String key) {
 		if (StringUtils.isEmptyOrNull(key)) {
 			throw new IllegalArgumentException(
 					JGitText.get().illegalTernarySearchTreeKey);
@@ -96,6 +103,8 @@ public class TernarySearchTree<Value> {
 
 	private final AtomicInteger size = new AtomicInteger(0);
 
+	private final AtomicInteger nodes = new AtomicInteger(0);
+
 	private Node<Value> root;
 
 	/**
@@ -210,6 +219,16 @@ public class TernarySearchTree<Value> {
 		return size.get();
 	}
 
+	/**
+	 * Get the number of nodes in this trie. Nodes no longer leading to any
+	 * value are removed on delete, so this only grows with the live keys.
+	 *
+	 * @return number of nodes in this trie
+	 */
+	public int nodeCount() {
+		return nodes.get();
+	}
+
 	/**
 	 * Get the value associated to a key or {@code null}.
 	 *
@@ -303,7 +322,7 @@ public class TernarySearchTree<Value> {
 		try {
 			if (contains(key)) {
 				size.addAndGet(-1);
-				root = insert(root, key, null, 0);
+				root = remove(root, key);
 			}
 			return size.get();
 		} finally {
@@ -318,6 +337,7 @@ public class TernarySearchTree<Value> {
 		lock.writeLock().lock();
 		try {
 			size.set(0);
+			nodes.set(0);
 			root = null;
 		} finally {
 			lock.writeLock().unlock();
@@ -435,7 +455,7 @@ public class TernarySearchTree<Value> {
 		List<Value> values = new ArrayList<>();
 		lock.readLock().lock();
 		try {
-			findValuesWithPrefix(root, new StringBuilder(), values);
+			findValuesWithPrefix(root, values);
 			return values;
 		} finally {
 			lock.readLock().unlock();
@@ -491,15 +511,128 @@ public class TernarySearchTree<Value> {
 		}
 		lock.readLock().lock();
 		try {
-			validateKey(prefix);
-			Node<Value> node = get(root, prefix, 0);
-			if (node == null) {
-				return values;
+			collectValuesWithPrefix(prefix, values);
+			return values;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Get all values with any of the given key prefixes, under a single read
+	 * lock and into a single list. The values are in key order and unique if
+	 * the prefixes are sorted and none of them starts with another one.
+	 *
+	 * @param prefixes
+	 *            sorted key prefixes, none of them starting with another one
+	 * @return values with any of the given prefixes
+	 */
+	public List<Value> getValuesWithPrefixes(List<String> prefixes) {
+		List<Value> values = new ArrayList<>();
+		lock.readLock().lock();
+		try {
+			for (String prefix : prefixes) {
+				if (prefix.isEmpty()) {
+					findValuesWithPrefix(root, values);
+				} else {
+					collectValuesWithPrefix(prefix, values);
+				}
 			}
-			if (node.hasValue()) {
-				values.add(node.val);
+			return values;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Visit the values with given key prefix in key order, without collecting
+	 * them: nothing is allocated per visited value. The visitor is called
+	 * under the read lock and must not update the tree.
+	 *
+	 * @param prefix
+	 *            key prefix, empty for all values
+	 * @param visitor
+	 *            called for each value until it returns {@code false}
+	 * @return {@code false} if the visitor stopped the traversal,
+	 *         {@code true} otherwise
+	 */
+	public boolean visitValuesWithPrefix(String prefix,
+			ValueVisitor<Value> visitor) {
+		if (prefix == null) {
+			return true;
+		}
+		lock.readLock().lock();
+		try {
+			Node<Value> start = root;
+			if (!prefix.isEmpty()) {
+				validateKey(prefix);
+				Node<Value> node = get(root, prefix, 0);
+				if (node == null) {
+					return true;
+				}
+				if (node.hasValue() && !visitor.visit(node.val)) {
+					return false;
+				}
+				start = node.eq;
+			}
+			boolean[] completed = { true };
+			traverse(start, null, null, (n, key) -> {
+				completed[0] = visitor.visit(n.val);
+				return completed[0];
+			});
+			return completed[0];
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	private void collectValuesWithPrefix(String prefix, List<Value> values) {
+		validateKey(prefix);
+		Node<Value> node = get(root, prefix, 0);
+		if (node == null) {
+			return;
+		}
+		if (node.hasValue()) {
+			values.add(node.val);
+		}
+		findValuesWithPrefix(node.eq, values);
+	}
+
+	/**
+	 * Get all values with given key prefix except the ones whose keys start
+	 * with any of {@code skipped}, in key order. The subtrees of the skipped
+	 * keys are not visited at all, so skipping most of the tree costs
+	 * nothing.
+	 *
+	 * @param prefix
+	 *            key prefix
+	 * @param skipped
+	 *            prefixes of the keys to skip, each longer than
+	 *            {@code prefix} and starting with it
+	 * @return values with given prefix and none of the skipped prefixes
+	 */
+	public List<Value> getValuesWithPrefixSkipping(String prefix,
+			String[] skipped) {
+		List<Value> values = new ArrayList<>();
+		if (prefix == null) {
+			return values;
+		}
+		lock.readLock().lock();
+		try {
+			Node<Value> start = root;
+			if (!prefix.isEmpty()) {
+				validateKey(prefix);
+				Node<Value> node = get(root, prefix, 0);
+				if (node == null) {
+					return values;
+				}
+				if (node.hasValue()) {
+					values.add(node.val);
+				}
+				start = node.eq;
 			}
-			findValuesWithPrefix(node.eq, new StringBuilder(prefix), values);
+			traverse(start, new StringBuilder(prefix), skipped,
+					(n, key) -> values.add(n.val));
 			return values;
 		} finally {
 			lock.readLock().unlock();
@@ -525,79 +658,303 @@ public class TernarySearchTree<Value> {
 	}
 
 	private Node<Value> get(Node<Value> node, String key, int depth) {
-		if (node == null) {
-			return null;
-		}
-		char c = key.charAt(depth);
-		if (node.c > c) {
-			return get(node.lo, key, depth);
-		} else if (node.c < c) {
-			return get(node.hi, key, depth);
-		} else if (depth < key.length() - 1) {
-			return get(node.eq, key, depth + 1);
-		} else {
-			return node;
+		while (node != null) {
+			char c = key.charAt(depth);
+			if (node.c > c) {
+				node = node.lo;
+			} else if (node.c < c) {
+				node = node.hi;
+			} else if (depth < key.length() - 1) {
+				node = node.eq;
+				depth++;
+			} else {
+				return node;
+			}
 		}
+		return null;
 	}
 
 	protected Node<Value> insert(Node<Value> node, String key, Value val,
 			int depth) {
-		char c = key.charAt(depth);
 		if (node == null) {
-			node = new Node<>(c);
-		}
-		if (node.c > c) {
-			node.lo = insert(node.lo, key, val, depth);
-		} else if (node.c < c) {
-			node.hi = insert(node.hi, key, val, depth);
-		} else if (depth < key.length() - 1) {
-			node.eq = insert(node.eq, key, val, depth + 1);
-		} else {
-			node.val = val;
+			node = newNode(key.charAt(depth));
+		}
+		Node<Value> top = node;
+		while (true) {
+			char c = key.charAt(depth);
+			if (node.c > c) {
+				if (node.lo == null) {
+					node.lo = newNode(c);
+				}
+				node = node.lo;
+			} else if (node.c < c) {
+				if (node.hi == null) {
+					node.hi = newNode(c);
+				}
+				node = node.hi;
+			} else if (depth < key.length() - 1) {
+				depth++;
+				if (node.eq == null) {
+					node.eq = newNode(key.charAt(depth));
+				}
+				node = node.eq;
+			} else {
+				node.val = val;
+				return top;
+			}
 		}
-		return node;
 	}
 
-	private void findKeysWithPrefix(Node<Value> node, StringBuilder prefix,
-			Queue<String> keys) {
+	private Node<Value> newNode(char c) {
+		nodes.incrementAndGet();
+		return new Node<>(c);
+	}
+
+	/**
+	 * Remove the value of a key and the nodes which no longer lead to any
+	 * value.
+	 *
+	 * @param node
+	 *            root of the tree
+	 * @param key
+	 *            the key
+	 * @return new root of the tree
+	 */
+	protected Node<Value> remove(Node<Value> node, String key) {
+		Node<Value> root = node;
+		Node<Value>[] path = newNodeArray(64);
+		byte[] dirs = new byte[64];
+		int depth = 0;
+		int n = 0;
+		while (node != null) {
+			char c = key.charAt(depth);
+			byte dir;
+			if (node.c > c) {
+				dir = LO;
+			} else if (node.c < c) {
+				dir = HI;
+			} else if (depth < key.length() - 1) {
+				dir = EQ;
+				depth++;
+			} else {
+				break;
+			}
+			if (n == path.length) {
+				path = Arrays.copyOf(path, n * 2);
+				dirs = Arrays.copyOf(dirs, n * 2);
+			}
+			path[n] = node;
+			dirs[n++] = dir;
+			node = dir == LO ? node.lo : dir == HI ? node.hi : node.eq;
+		}
 		if (node == null) {
-			return;
+			return root;
+		}
+		node.val = null;
+		Node<Value> replacement = prune(node);
+		while (replacement != node && n > 0) {
+			Node<Value> parent = path[--n];
+			switch (dirs[n]) {
+			case LO:
+				parent.lo = replacement;
+				return root;
+			case HI:
+				parent.hi = replacement;
+				return root;
+			default:
+				parent.eq = replacement;
+				node = parent;
+				replacement = prune(parent);
+			}
 		}
-		findKeysWithPrefix(node.lo, prefix, keys);
-		if (node.hasValue()) {
-			keys.add(prefix.toString() + node.c);
+		return replacement != node ? replacement : root;
+	}
+
+	/**
+	 * Drop a node if neither it nor its eq subtree hold a value.
+	 *
+	 * @return the node itself if it must be kept, or the node replacing it
+	 */
+	private Node<Value> prune(Node<Value> node) {
+		if (node.hasValue() || node.eq != null) {
+			return node;
+		}
+		nodes.decrementAndGet();
+		if (node.lo == null) {
+			return node.hi;
+		}
+		if (node.hi == null) {
+			return node.lo;
+		}
+		// Every key below hi sorts after every key below lo.
+		Node<Value> rightmost = node.lo;
+		while (rightmost.hi != null) {
+			rightmost = rightmost.hi;
+		}
+		rightmost.hi = node.hi;
+		return node.lo;
+	}
+
+	/**
+	 * Check whether {@code key} is one of the {@code skipped} keys. Only the
+	 * key of the topmost node of a skipped subtree can match, the nodes below
+	 * it are not visited.
+	 */
+	private static boolean isSkipped(StringBuilder key, String[] skipped) {
+		for (String s : skipped) {
+			if (s.length() == key.length() && s.contentEquals(key)) {
+				return true;
+			}
 		}
-		findKeysWithPrefix(node.eq, prefix.append(node.c), keys);
-		prefix.deleteCharAt(prefix.length() - 1);
-		findKeysWithPrefix(node.hi, prefix, keys);
+		return false;
+	}
+
+	private void findKeysWithPrefix(Node<Value> node, StringBuilder prefix,
+			Queue<String> keys) {
+		traverse(node, prefix, null,
+				(n, key) -> keys.add(key.toString()));
 	}
 
 	private void findWithPrefix(Node<Value> node, StringBuilder prefix,
 			Map<String, Value> entries) {
-		if (node == null) {
-			return;
-		}
-		findWithPrefix(node.lo, prefix, entries);
-		if (node.hasValue()) {
-			entries.put(prefix.toString() + node.c, node.val);
+		traverse(node, prefix, null, (n, key) -> {
+			entries.put(key.toString(), n.val);
+			return true;
+		});
+	}
+
+	private void findValuesWithPrefix(Node<Value> node, List<Value> values) {
+		traverse(node, null, null, (n, key) -> values.add(n.val));
+	}
+
+	/**
+	 * Callback for the values visited by
+	 * {@link #visitValuesWithPrefix(String, ValueVisitor)}.
+	 */
+	@FunctionalInterface
+	public interface ValueVisitor<Value> {
+		/**
+		 * @param value
+		 *            visited value
+		 * @return whether the traversal should continue
+		 */
+		boolean visit(Value value);
+	}
+
+	/**
+	 * Callback for nodes holding a value found by
+	 * {@link #traverse(Node, StringBuilder, String[], NodeVisitor)}.
+	 */
+	private interface NodeVisitor<Value> {
+		/**
+		 * @param node
+		 *            node holding a value
+		 * @param key
+		 *            key of the node, or {@code null} if the traversal does
+		 *            not track keys. Only valid during the call.
+		 * @return whether the traversal should continue
+		 */
+		boolean visit(Node<Value> node, StringBuilder key);
+	}
+
+	/**
+	 * Create an array of nodes. Arrays of a generic type cannot be created
+	 * directly; the cast is safe as the array only ever holds nodes of the
+	 * same value type.
+	 */
+	@SuppressWarnings("unchecked")
+	private static <Value> Node<Value>[] newNodeArray(int size) {
+		return (Node<Value>[]) new Node<?>[size];
+	}
+
+	/**
+	 * Nodes still to visit by
+	 * {@link #traverse(Node, StringBuilder, String[], NodeVisitor)}.
+	 * Each entry is either a node whose lo subtree was already visited, or the
+	 * root of a subtree still to visit.
+	 */
+	private static final class Frames<Value> {
+		Node<Value>[] nodes = newNodeArray(64);
+
+		boolean[] subtree = new boolean[64];
+
+		int[] depth = new int[64];
+
+		int size;
+
+		void push(Node<Value> node, boolean isSubtree, int d) {
+			if (size == nodes.length) {
+				nodes = Arrays.copyOf(nodes, size * 2);
+				subtree = Arrays.copyOf(subtree, size * 2);
+				depth = Arrays.copyOf(depth, size * 2);
+			}
+			subtree[size] = isSubtree;
+			depth[size] = d;
+			nodes[size++] = node;
 		}
-		findWithPrefix(node.eq, prefix.append(node.c), entries);
-		prefix.deleteCharAt(prefix.length() - 1);
-		findWithPrefix(node.hi, prefix, entries);
 	}
 
-	private void findValuesWithPrefix(Node<Value> node, StringBuilder prefix,
-			List<Value> values) {
-		if (node == null) {
+	/**
+	 * Visit the nodes holding a value below {@code start} (lo, node, eq, hi)
+	 * in key order, using an explicit stack instead of recursion.
+	 *
+	 * @param start
+	 *            node to start from
+	 * @param prefix
+	 *            key of the parent of {@code start}, or {@code null} if keys
+	 *            are not needed
+	 * @param skipped
+	 *            if not {@code null} skip the subtrees of the keys starting
+	 *            with any of these, which must be longer than {@code prefix}
+	 *            and start with it: their nodes are not visited at all.
+	 *            Requires {@code prefix}.
+	 * @param visitor
+	 *            called for each node holding a value until it returns
+	 *            {@code false}
+	 */
+	private static <Value> void traverse(Node<Value> start,
+			@Nullable StringBuilder prefix, @Nullable String[] skipped,
+			NodeVisitor<Value> visitor) {
+		if (start == null) {
 			return;
 		}
-		findValuesWithPrefix(node.lo, prefix, values);
-		if (node.hasValue()) {
-			values.add(node.val);
+		boolean trackKeys = prefix != null;
+		Frames<Value> frames = new Frames<>();
+		Node<Value> node = start;
+		int d = trackKeys ? prefix.length() : 0;
+		while (true) {
+			for (; node != null; node = node.lo) {
+				frames.push(node, false, d);
+			}
+			if (frames.size == 0) {
+				return;
+			}
+			int top = --frames.size;
+			node = frames.nodes[top];
+			d = frames.depth[top];
+			if (frames.subtree[top]) {
+				continue;
+			}
+			if (trackKeys) {
+				prefix.setLength(d);
+				prefix.append(node.c);
+			}
+			if (skipped != null && isSkipped(prefix, skipped)) {
+				if (node.hi != null) {
+					frames.push(node.hi, true, d);
+				}
+				node = null;
+				continue;
+			}
+			if (node.hasValue() && !visitor.visit(node, prefix)) {
+				return;
+			}
+			if (node.hi != null) {
+				frames.push(node.hi, true, d);
+			}
+			node = node.eq;
+			d++;
 		}
-		findValuesWithPrefix(node.eq, prefix.append(node.c), values);
-		prefix.deleteCharAt(prefix.length() - 1);
-		findValuesWithPrefix(node.hi, prefix, values);
 	}
 
 	private void findKeysWithPrefix(Node<Value> node, StringBuilder prefix,
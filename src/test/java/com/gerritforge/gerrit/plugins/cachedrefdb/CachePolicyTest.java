@@ -0,0 +1,99 @@
+// Copyright (C) 2026 GerritForge, Inc.
+//
+// Licensed under the BSL 1.1 (the "License");
+// you may not use this file except in compliance with the License.
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.gerritforge.gerrit.plugins.cachedrefdb;
+
+import static com.gerritforge.gerrit.plugins.cachedrefdb.CachedRefDbConfig.ADAPTIVE;
+import static com.gerritforge.gerrit.plugins.cachedrefdb.CachedRefDbConfig.ADAPTIVE_WINDOW;
+import static com.gerritforge.gerrit.plugins.cachedrefdb.CachedRefDbConfig.EXCLUDE_PROJECT;
+import static com.gerritforge.gerrit.plugins.cachedrefdb.CachedRefDbConfig.EXCLUDE_REF_PREFIX;
+import static com.gerritforge.gerrit.plugins.cachedrefdb.CachedRefDbConfig.SECTION;
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.gerrit.metrics.DisabledMetricMaker;
+import java.util.List;
+import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.lib.RefDatabase;
+import org.junit.Test;
+
+public class CachePolicyTest {
+  private static final String PROJECT = "project";
+
+  private final Cache<String, ProjectRefs> refNamesByProject = CacheBuilder.newBuilder().build();
+
+  @Test
+  public void excludedProjectIsNotCached() {
+    Config config = new Config();
+    config.setString(SECTION, null, EXCLUDE_PROJECT, "mirrors/*");
+    CachePolicy policy = policy(config);
+
+    assertThat(policy.route("mirrors/kernel", "refs/heads/master")).isFalse();
+    assertThat(policy.routeUpdate("mirrors/kernel")).isFalse();
+    assertThat(policy.route(PROJECT, "refs/heads/master")).isTrue();
+  }
+
+  @Test
+  public void callsOverlappingExcludedPrefixAreNotCached() {
+    Config config = new Config();
+    config.setString(SECTION, null, EXCLUDE_REF_PREFIX, "refs/changes/");
+    CachePolicy policy = policy(config);
+
+    assertThat(policy.route(PROJECT, "refs/changes/01/1/1")).isFalse();
+    assertThat(policy.route(PROJECT, "refs/")).isFalse();
+    assertThat(policy.route(PROJECT, RefDatabase.ALL)).isFalse();
+    assertThat(policy.route(PROJECT, "refs/heads/", "refs/tags/")).isTrue();
+  }
+
+  @Test
+  public void updateHeavyProjectIsDemotedAndPromotedBack() {
+    Config config = new Config();
+    config.setBoolean(SECTION, null, ADAPTIVE, true);
+    config.setInt(SECTION, null, ADAPTIVE_WINDOW, 10);
+    CachePolicy policy = policy(config);
+    refNamesByProject.put(PROJECT, ProjectRefs.restored(RefsFingerprint.UNKNOWN, List.of()));
+
+    calls(policy, 4, 6);
+    assertThat(policy.isCached(PROJECT)).isFalse();
+    assertThat(refNamesByProject.getIfPresent(PROJECT)).isNull();
+
+    // Between the two thresholds: stays as it is.
+    calls(policy, 7, 3);
+    assertThat(policy.isCached(PROJECT)).isFalse();
+
+    calls(policy, 9, 1);
+    assertThat(policy.isCached(PROJECT)).isTrue();
+  }
+
+  @Test
+  public void workloadIsNotTrackedByDefault() {
+    CachePolicy policy = policy(new Config());
+
+    calls(policy, 0, 5000);
+
+    assertThat(policy.isCached(PROJECT)).isTrue();
+  }
+
+  private void calls(CachePolicy policy, int reads, int writes) {
+    for (int i = 0; i < writes; i++) {
+      policy.routeUpdate(PROJECT);
+    }
+    for (int i = 0; i < reads; i++) {
+      policy.route(PROJECT, "refs/heads/master");
+    }
+  }
+
+  private CachePolicy policy(Config config) {
+    return new CachePolicy(
+        new CachedRefDbConfig(config), refNamesByProject, new DisabledMetricMaker());
+  }
+}
@@ -11,22 +11,40 @@
 
 package com.gerritforge.gerrit.plugins.cachedrefdb;
 
+import static com.gerritforge.gerrit.plugins.cachedrefdb.CachedRefDbConfig.CHECK_INTERVAL;
+import static com.gerritforge.gerrit.plugins.cachedrefdb.CachedRefDbConfig.EXCLUDE_REF_PREFIX;
+import static com.gerritforge.gerrit.plugins.cachedrefdb.CachedRefDbConfig.LAZY_LOADING;
+import static com.gerritforge.gerrit.plugins.cachedrefdb.CachedRefDbConfig.MAX_REFS;
+import static com.gerritforge.gerrit.plugins.cachedrefdb.CachedRefDbConfig.MAX_STALENESS;
+import static com.gerritforge.gerrit.plugins.cachedrefdb.CachedRefDbConfig.VERIFY_ALL_REFS;
+import static com.gerritforge.gerrit.plugins.cachedrefdb.RefDatabaseCacheImpl.REF_NAMES_BY_PROJECT;
 import static com.google.common.truth.Truth.assertThat;
 
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalNotification;
 import com.google.gerrit.entities.RefNames;
 import com.google.gerrit.extensions.registration.DynamicItem;
+import com.google.gerrit.metrics.DisabledMetricMaker;
+import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
 import org.eclipse.jgit.internal.storage.file.FileRepository;
 import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.lib.ConfigConstants;
 import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectIdRef;
 import org.eclipse.jgit.lib.Ref;
 import org.eclipse.jgit.lib.RefDatabase;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevTag;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Rule;
@@ -45,6 +63,9 @@ public class CachedRefRepositoryTest {
   private TestRepository<Repository> tr;
   private CachedRefRepository objectUnderTest;
   private TestRefByNameCacheImpl cache;
+  private Cache<String, ProjectRefs> refNamesByProject;
+  private final List<Runnable> reloads = new ArrayList<>();
+  private final List<String> fingerprinted = new ArrayList<>();
 
   private RevCommit firstCommit;
   private RevCommit secondCommit;
@@ -58,7 +79,7 @@ public class CachedRefRepositoryTest {
     // enable reflog for a repository so that references to it could be resolved
     Files.writeString(repoPath.resolve("config"), "[core]\n  logAllRefUpdates = true\n");
 
-    objectUnderTest = createCachedRepository(repo);
+    objectUnderTest = createCachedRepository(repo, new Config());
     tr = new TestRepository<>(repo);
   }
 
@@ -152,6 +173,298 @@ public class CachedRefRepositoryTest {
     assertThat(cache.cacheCalled).isEqualTo(0);
   }
 
+  @Test
+  public void shouldKeepTheTagsUpdatedThroughTheCachePeeled() throws Exception {
+    ((FileRepository) repo())
+        .convertRefStorage(ConfigConstants.CONFIG_REF_STORAGE_REFTABLE, false, false);
+    objectUnderTest = createCachedRepository(repo(), new Config());
+    initTestRepository();
+    assertThat(objectUnderTest.exactRef(TEST_TAG_REF_NAME).getPeeledObjectId())
+        .isEqualTo(firstCommit);
+
+    RevTag tag = tr.update(TEST_TAG_REF_NAME, tr.tag(TEST_TAG_NAME, secondCommit));
+    cache.updateRef("repo", TEST_TAG_REF_NAME, tag, repo().getRefDatabase());
+
+    Ref updated = objectUnderTest.exactRef(TEST_TAG_REF_NAME);
+    assertThat(updated.getObjectId()).isEqualTo(tag);
+    assertThat(updated.getPeeledObjectId()).isEqualTo(secondCommit);
+  }
+
+  @Test
+  public void shouldNotReconcileTheRefsUpdatedThroughTheCacheAgain() throws Exception {
+    ((FileRepository) repo())
+        .convertRefStorage(ConfigConstants.CONFIG_REF_STORAGE_REFTABLE, false, false);
+    objectUnderTest = createCachedRepository(repo(), new Config());
+    initTestRepository();
+    assertThat(objectUnderTest.exactRef(MASTER_REF_NAME).getObjectId()).isEqualTo(secondCommit);
+
+    RevCommit thirdCommit =
+        tr.update(MASTER_REF_NAME, tr.commit().parent(secondCommit).add("third", "foo").create());
+    cache.updateRef("repo", MASTER_REF_NAME, thirdCommit, repo().getRefDatabase());
+
+    // Listed peeled from the reftable, while updated unpeeled through the cache.
+    assertThat(repo().exactRef(MASTER_REF_NAME).isPeeled()).isTrue();
+    RefTree tree = refNamesByProject.getIfPresent("repo").tree();
+    Ref updated = tree.get(MASTER_REF_NAME);
+    assertThat(updated.isPeeled()).isFalse();
+
+    tree.reconcile(repo().getRefDatabase().getRefs());
+    assertThat(tree.get(MASTER_REF_NAME)).isSameInstanceAs(updated);
+    assertThat(objectUnderTest.exactRef(MASTER_REF_NAME).getObjectId()).isEqualTo(thirdCommit);
+  }
+
+  @Test
+  public void shouldGetExactRefsFromCache() throws Exception {
+    initTestRepository();
+    RefDatabase refDb = objectUnderTest.getRefDatabase();
+    assertThat(refDb.exactRef(MASTER_REF_NAME).getObjectId()).isEqualTo(secondCommit);
+
+    // Not updated through the cache: the refs can only come from the cached refs.
+    tr.update(MASTER_REF_NAME, tr.commit().parent(secondCommit).add("third", "foo").create());
+
+    assertThat(refDb.exactRef(MASTER_REF_NAME, TEST_TAG_REF_NAME, "refs/heads/missing").keySet())
+        .containsExactly(MASTER_REF_NAME, TEST_TAG_REF_NAME);
+    assertThat(refDb.exactRef(MASTER_REF_NAME, TEST_TAG_REF_NAME).get(MASTER_REF_NAME))
+        .isEqualTo(refDb.exactRef(MASTER_REF_NAME));
+    assertThat(refDb.findRef(MASTER_BRANCH_NAME).getObjectId()).isEqualTo(secondCommit);
+    assertThat(refDb.findRef(TEST_TAG_NAME).getName()).isEqualTo(TEST_TAG_REF_NAME);
+    assertThat(refDb.firstExactRef("refs/heads/missing")).isNull();
+  }
+
+  @Test
+  public void shouldListRefsWithExclusionsFromCache() throws Exception {
+    initTestRepository();
+    RefDatabase refDb = objectUnderTest.getRefDatabase();
+    assertThat(refDb.exactRef(MASTER_REF_NAME).getObjectId()).isEqualTo(secondCommit);
+
+    // Not updated through the cache: the refs can only come from the cached refs.
+    tr.update("refs/heads/stable", secondCommit);
+
+    assertThat(
+            refDb.getRefsByPrefixWithExclusions(RefDatabase.ALL, Set.of(RefNames.REFS_TAGS))
+                .stream()
+                .map(Ref::getName))
+        .containsExactly("HEAD", MASTER_REF_NAME)
+        .inOrder();
+    assertThat(refDb.getRefsByPrefixWithExclusions("refs/", Set.of("refs/"))).isEmpty();
+  }
+
+  @Test
+  public void shouldListAllRefsFromCache() throws Exception {
+    initTestRepository();
+    assertThat(objectUnderTest.exactRef(MASTER_REF_NAME).getObjectId()).isEqualTo(secondCommit);
+
+    // Not updated through the cache: the listing can only come from the cached refs.
+    tr.update(MASTER_REF_NAME, tr.commit().parent(secondCommit).add("third", "foo").create());
+
+    List<Ref> all = objectUnderTest.getRefDatabase().getRefs();
+    assertThat(all.stream().map(Ref::getName))
+        .containsExactly("HEAD", MASTER_REF_NAME, TEST_TAG_REF_NAME)
+        .inOrder();
+    assertThat(objectUnderTest.getRefDatabase().exactRef(MASTER_REF_NAME).getObjectId())
+        .isEqualTo(secondCommit);
+  }
+
+  @Test
+  public void shouldDropCachedRefsDifferingFromDiskWhenVerified() throws Exception {
+    objectUnderTest = createCachedRepository(repo(), config(VERIFY_ALL_REFS, "true"));
+    initTestRepository();
+    assertThat(objectUnderTest.getRefDatabase().getRefs()).hasSize(3);
+    assertThat(refNamesByProject.getIfPresent("repo")).isNotNull();
+
+    RevCommit thirdCommit =
+        tr.update(MASTER_REF_NAME, tr.commit().parent(secondCommit).add("third", "foo").create());
+
+    List<Ref> all = objectUnderTest.getRefDatabase().getRefs();
+    assertThat(
+            all.stream()
+                .filter(ref -> ref.getName().equals(MASTER_REF_NAME))
+                .map(Ref::getObjectId))
+        .containsExactly(thirdCommit);
+    assertThat(refNamesByProject.getIfPresent("repo")).isNull();
+    assertThat(objectUnderTest.exactRef(MASTER_REF_NAME).getObjectId()).isEqualTo(thirdCommit);
+  }
+
+  @Test
+  public void shouldNotServeCachedRefsDifferingFromDiskStale() throws Exception {
+    Config config = config(VERIFY_ALL_REFS, "true");
+    config.setString(CachedRefDbConfig.SECTION, null, MAX_STALENESS, "1 min");
+    objectUnderTest = createCachedRepository(repo(), config);
+    initTestRepository();
+    assertThat(objectUnderTest.getRefDatabase().getRefs()).hasSize(3);
+
+    RevCommit thirdCommit =
+        tr.update(MASTER_REF_NAME, tr.commit().parent(secondCommit).add("third", "foo").create());
+
+    assertThat(objectUnderTest.getRefDatabase().getRefs()).hasSize(3);
+    assertThat(refNamesByProject.getIfPresent("repo")).isNull();
+    assertThat(objectUnderTest.exactRef(MASTER_REF_NAME).getObjectId()).isEqualTo(thirdCommit);
+    assertThat(reloads).isEmpty();
+  }
+
+  @Test
+  public void shouldReloadRestoredRefsWhenChangedOnDisk() throws Exception {
+    initTestRepository();
+    Ref stale = new ObjectIdRef.Unpeeled(Ref.Storage.PACKED, MASTER_REF_NAME, firstCommit);
+    refNamesByProject.put("repo", ProjectRefs.restored(RefsFingerprint.UNKNOWN, List.of(stale)));
+
+    assertThat(objectUnderTest.exactRef(MASTER_REF_NAME).getObjectId()).isEqualTo(secondCommit);
+    assertThat(refNamesByProject.getIfPresent("repo").isRestored()).isFalse();
+  }
+
+  @Test
+  public void shouldServeStaleRefsWhileReloadingThem() throws Exception {
+    objectUnderTest = createCachedRepository(repo(), config(MAX_STALENESS, "1 min"));
+    initTestRepository();
+    assertThat(objectUnderTest.exactRef(MASTER_REF_NAME).getObjectId()).isEqualTo(secondCommit);
+
+    refNamesByProject.invalidate("repo");
+    RevCommit thirdCommit =
+        tr.update(MASTER_REF_NAME, tr.commit().parent(secondCommit).add("third", "foo").create());
+
+    assertThat(objectUnderTest.exactRef(MASTER_REF_NAME).getObjectId()).isEqualTo(secondCommit);
+    assertThat(objectUnderTest.exactRef(MASTER_REF_NAME).getObjectId()).isEqualTo(secondCommit);
+    assertThat(reloads).hasSize(1);
+
+    reloads.remove(0).run();
+    assertThat(objectUnderTest.exactRef(MASTER_REF_NAME).getObjectId()).isEqualTo(thirdCommit);
+    assertThat(refNamesByProject.getIfPresent("repo").isStale()).isFalse();
+  }
+
+  @Test
+  public void shouldLoadRefsStaleForTooLong() throws Exception {
+    objectUnderTest = createCachedRepository(repo(), config(MAX_STALENESS, "1 ms"));
+    initTestRepository();
+    assertThat(objectUnderTest.exactRef(MASTER_REF_NAME).getObjectId()).isEqualTo(secondCommit);
+
+    refNamesByProject.invalidate("repo");
+    RevCommit thirdCommit =
+        tr.update(MASTER_REF_NAME, tr.commit().parent(secondCommit).add("third", "foo").create());
+    Thread.sleep(10);
+
+    assertThat(objectUnderTest.exactRef(MASTER_REF_NAME).getObjectId()).isEqualTo(thirdCommit);
+    assertThat(reloads).isEmpty();
+  }
+
+  @Test
+  public void shouldReloadRefsChangedOnDiskWhenChecked() throws Exception {
+    objectUnderTest = createCachedRepository(repo(), config(CHECK_INTERVAL, "1 ms"));
+    initTestRepository();
+    assertThat(objectUnderTest.exactRef(MASTER_REF_NAME).getObjectId()).isEqualTo(secondCommit);
+
+    RevCommit thirdCommit =
+        tr.update(MASTER_REF_NAME, tr.commit().parent(secondCommit).add("third", "foo").create());
+    Thread.sleep(10);
+
+    assertThat(objectUnderTest.exactRef(MASTER_REF_NAME).getObjectId()).isEqualTo(thirdCommit);
+  }
+
+  @Test
+  public void shouldNotCheckRefsOnDiskByDefault() throws Exception {
+    initTestRepository();
+    assertThat(objectUnderTest.exactRef(MASTER_REF_NAME).getObjectId()).isEqualTo(secondCommit);
+
+    tr.update(MASTER_REF_NAME, tr.commit().parent(secondCommit).add("third", "foo").create());
+    Thread.sleep(10);
+
+    assertThat(objectUnderTest.exactRef(MASTER_REF_NAME).getObjectId()).isEqualTo(secondCommit);
+  }
+
+  @Test
+  public void shouldNotFingerprintRefsOnDiskByDefault() throws Exception {
+    initTestRepository();
+    assertThat(objectUnderTest.exactRef(MASTER_REF_NAME).getObjectId()).isEqualTo(secondCommit);
+    refNamesByProject.invalidateAll();
+    assertThat(objectUnderTest.exactRef(MASTER_REF_NAME).getObjectId()).isEqualTo(secondCommit);
+
+    assertThat(fingerprinted).isEmpty();
+  }
+
+  @Test
+  public void shouldFingerprintRefsOnDiskWhenChecked() throws Exception {
+    objectUnderTest = createCachedRepository(repo(), config(CHECK_INTERVAL, "1 min"));
+    initTestRepository();
+    assertThat(objectUnderTest.exactRef(MASTER_REF_NAME).getObjectId()).isEqualTo(secondCommit);
+
+    assertThat(fingerprinted).containsExactly("repo");
+  }
+
+  @Test
+  public void shouldLoadNamespacesOnFirstAccessWhenLazy() throws Exception {
+    objectUnderTest = createCachedRepository(repo(), config(LAZY_LOADING, "true"));
+    initTestRepository();
+
+    assertThat(objectUnderTest.exactRef(MASTER_REF_NAME).getObjectId()).isEqualTo(secondCommit);
+    ShardedRefTree tree = (ShardedRefTree) refNamesByProject.getIfPresent("repo").tree();
+    assertThat(tree.isLoaded(RefNamespace.HEADS)).isTrue();
+    assertThat(tree.isLoaded(RefNamespace.TAGS)).isFalse();
+
+    List<Ref> all = objectUnderTest.getRefDatabase().getRefsByPrefix(RefDatabase.ALL);
+    assertThat(all.stream().map(Ref::getName))
+        .containsExactly("HEAD", MASTER_REF_NAME, TEST_TAG_REF_NAME);
+    assertThat(tree.isFullyLoaded()).isTrue();
+  }
+
+  @Test
+  public void shouldUpdateRefsToTheirNewObjectIdWithoutReadingThem() throws Exception {
+    initTestRepository();
+    assertThat(objectUnderTest.exactRef(MASTER_REF_NAME).getObjectId()).isEqualTo(secondCommit);
+    RevCommit third = tr.commit().parent(secondCommit).create();
+
+    // Not updated on disk: the cached ref can only come from the given object id.
+    cache.updateRef("repo", MASTER_REF_NAME, third, repo().getRefDatabase());
+
+    Ref updated = refNamesByProject.getIfPresent("repo").tree().get(MASTER_REF_NAME);
+    assertThat(updated.getObjectId()).isEqualTo(third);
+    assertThat(updated.getStorage()).isEqualTo(Ref.Storage.LOOSE);
+  }
+
+  @Test
+  public void shouldReadBackSymbolicRefsAndTheirTargetOnUpdate() throws Exception {
+    initTestRepository();
+    assertThat(objectUnderTest.exactRef(RefNames.HEAD).getObjectId()).isEqualTo(secondCommit);
+    RevCommit third = tr.update(MASTER_REF_NAME, tr.commit().parent(secondCommit).create());
+
+    cache.updateRef("repo", RefNames.HEAD, third, repo().getRefDatabase());
+
+    RefTree tree = refNamesByProject.getIfPresent("repo").tree();
+    assertThat(tree.get(RefNames.HEAD).isSymbolic()).isTrue();
+    assertThat(tree.get(RefNames.HEAD).getObjectId()).isEqualTo(third);
+    assertThat(tree.get(MASTER_REF_NAME).getObjectId()).isEqualTo(third);
+  }
+
+  @Test
+  public void shouldReadExcludedRefsFromRefDatabase() throws Exception {
+    objectUnderTest = createCachedRepository(repo(), config(EXCLUDE_REF_PREFIX, "refs/tags/"));
+    initTestRepository();
+
+    assertThat(objectUnderTest.exactRef(MASTER_REF_NAME).getObjectId()).isEqualTo(secondCommit);
+    assertThat(objectUnderTest.exactRef(TEST_TAG_REF_NAME)).isNotNull();
+    assertThat(objectUnderTest.getRefDatabase().getRefsByPrefix(RefNames.REFS_TAGS)).hasSize(1);
+
+    RefTree tree = refNamesByProject.getIfPresent("repo").tree();
+    assertThat(tree.get(MASTER_REF_NAME)).isNotNull();
+    assertThat(tree.get(TEST_TAG_REF_NAME)).isNull();
+  }
+
+  @Test
+  public void shouldStopCachingProjectsWithTooManyRefs() throws Exception {
+    objectUnderTest = createCachedRepository(repo(), config(MAX_REFS, "1"));
+    initTestRepository();
+
+    assertThat(objectUnderTest.exactRef(MASTER_REF_NAME).getObjectId()).isEqualTo(secondCommit);
+    assertThat(refNamesByProject.getIfPresent("repo")).isNull();
+
+    assertThat(objectUnderTest.exactRef(MASTER_REF_NAME).getObjectId()).isEqualTo(secondCommit);
+    assertThat(refNamesByProject.getIfPresent("repo")).isNull();
+  }
+
+  private static Config config(String name, String value) {
+    Config config = new Config();
+    config.setString(CachedRefDbConfig.SECTION, null, name, value);
+    return config;
+  }
+
   private void initTestRepository() throws Exception {
     firstCommit = tr.update(MASTER_REF_NAME, tr.commit().add(FIRST_FILENAME, "foo").create());
     tr.update(TEST_TAG_REF_NAME, tr.tag(TEST_TAG_NAME, firstCommit));
@@ -164,8 +477,31 @@ public class CachedRefRepositoryTest {
     return tr.getRepository();
   }
 
-  private CachedRefRepository createCachedRepository(Repository repo) {
-    cache = new TestRefByNameCacheImpl(CacheBuilder.newBuilder().build());
+  private CachedRefRepository createCachedRepository(Repository repo, Config config) {
+    refNamesByProject =
+        CacheBuilder.newBuilder()
+            .removalListener(
+                (RemovalNotification<String, ProjectRefs> notification) ->
+                    new RefTreeRemovalListener(cache)
+                        .onRemoval("cached-refdb", REF_NAMES_BY_PROJECT, notification))
+            .build();
+    RefTreeReloader reloader =
+        new RefTreeReloader(
+            project -> {
+              repo.incrementOpen();
+              return repo;
+            },
+            reloads::add,
+            new DisabledMetricMaker());
+    cache =
+        new TestRefByNameCacheImpl(
+            refNamesByProject,
+            config,
+            project -> {
+              fingerprinted.add(project);
+              return repo.getDirectory();
+            },
+            reloader);
     RefDatabaseCacheWrapper wrapper =
         new RefDatabaseCacheWrapper(DynamicItem.itemOf(RefDatabaseCache.class, cache));
     CachedRefDatabase.Factory refDbFactory =
@@ -176,13 +512,23 @@ public class CachedRefRepositoryTest {
   private static class TestRefByNameCacheImpl extends RefDatabaseCacheImpl {
     private int cacheCalled;
 
-    private TestRefByNameCacheImpl(Cache<String, RefTernarySearchTree> refsNamesByPrefix) {
-      super(refsNamesByPrefix);
+    private TestRefByNameCacheImpl(
+        Cache<String, ProjectRefs> refsNamesByPrefix,
+        Config config,
+        Function<String, File> gitDirs,
+        RefTreeReloader reloader) {
+      super(
+          refsNamesByPrefix,
+          new CachedRefDbConfig(config),
+          new RefsFingerprinter(gitDirs),
+          reloader,
+          new CachePolicy(
+              new CachedRefDbConfig(config), refsNamesByPrefix, new DisabledMetricMaker()));
       cacheCalled = 0;
     }
 
     @Override
-    public Ref get(String identifier, String ref, RefDatabase delegate) {
+    public Ref get(String identifier, String ref, RefDatabase delegate) throws IOException {
       cacheCalled++;
       return super.get(identifier, ref, delegate);
     }
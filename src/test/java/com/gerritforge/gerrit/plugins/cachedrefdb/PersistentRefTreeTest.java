@@ -0,0 +1,142 @@
+// Copyright (C) 2026 GerritForge, Inc.
+//
+// Licensed under the BSL 1.1 (the "License");
+// you may not use this file except in compliance with the License.
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.gerritforge.gerrit.plugins.cachedrefdb;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectIdRef;
+import org.eclipse.jgit.lib.Ref;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PersistentRefTreeTest {
+
+  private static final ObjectId OID_1 =
+      ObjectId.fromString("0000000000000000000000000000000000000001");
+  private static final ObjectId OID_2 =
+      ObjectId.fromString("0000000000000000000000000000000000000002");
+
+  private static final String REF_A = "refs/heads/a";
+  private static final String REF_AB = "refs/heads/ab";
+  private static final String REF_B = "refs/heads/b";
+
+  private PersistentRefTree tree;
+
+  @Before
+  public void setUp() {
+    tree = new PersistentRefTree();
+  }
+
+  private static Ref ref(String name, ObjectId objectId) {
+    return new ObjectIdRef.Unpeeled(Ref.Storage.PACKED, name, objectId);
+  }
+
+  @Test
+  public void insertAndGet() {
+    tree.insert(REF_AB, ref(REF_AB, OID_1));
+    tree.insert(REF_A, ref(REF_A, OID_2));
+
+    assertThat(tree.get(REF_A).getObjectId()).isEqualTo(OID_2);
+    assertThat(tree.get(REF_AB).getObjectId()).isEqualTo(OID_1);
+    assertThat(tree.get("refs/heads/")).isNull();
+    assertThat(tree.size()).isEqualTo(2);
+  }
+
+  @Test
+  public void insertExistingKeyReplacesValueAndIndex() {
+    tree.insert(REF_A, ref(REF_A, OID_1));
+    tree.insert(REF_A, ref(REF_A, OID_2));
+
+    assertThat(tree.getByObjectId(OID_1)).isEmpty();
+    assertThat(tree.getByObjectId(OID_2).stream().map(Ref::getName)).containsExactly(REF_A);
+    assertThat(tree.size()).isEqualTo(1);
+  }
+
+  @Test
+  public void previouslyReturnedListsAreNotAffectedByWrites() {
+    tree.insert(REF_A, ref(REF_A, OID_1));
+    List<Ref> before = tree.getAllValues();
+
+    tree.insert(REF_B, ref(REF_B, OID_1));
+    tree.delete(REF_A);
+
+    assertThat(before.stream().map(Ref::getName)).containsExactly(REF_A);
+    assertThat(tree.getAllValues().stream().map(Ref::getName)).containsExactly(REF_B);
+  }
+
+  @Test
+  public void deleteRemovesRefAndKeepsSiblings() {
+    tree.insert(REF_A, ref(REF_A, OID_1));
+    tree.insert(REF_AB, ref(REF_AB, OID_1));
+    tree.insert(REF_B, ref(REF_B, OID_2));
+
+    tree.delete(REF_A);
+
+    assertThat(tree.contains(REF_A)).isFalse();
+    assertThat(tree.contains(REF_AB)).isTrue();
+    assertThat(tree.contains(REF_B)).isTrue();
+    assertThat(tree.getByObjectId(OID_1).stream().map(Ref::getName)).containsExactly(REF_AB);
+    assertThat(tree.delete(REF_A)).isEqualTo(2);
+  }
+
+  @Test
+  public void renameReplacesSourceRef() {
+    tree.insert(REF_A, ref(REF_A, OID_1));
+
+    tree.rename(REF_A, ref(REF_B, OID_1));
+
+    assertThat(tree.contains(REF_A)).isFalse();
+    assertThat(tree.get(REF_B).getObjectId()).isEqualTo(OID_1);
+    assertThat(tree.size()).isEqualTo(1);
+    assertThat(tree.getByObjectId(OID_1).stream().map(Ref::getName)).containsExactly(REF_B);
+  }
+
+  @Test
+  public void manyRefsSharingAnObjectIdAreIndexed() {
+    for (int i = 0; i < 20_000; i++) {
+      tree.insert("refs/heads/" + i, ref("refs/heads/" + i, OID_1));
+    }
+    tree.delete("refs/heads/7");
+
+    Set<Ref> refs = tree.getByObjectId(OID_1);
+    assertThat(refs).hasSize(19_999);
+    assertThat(refs.stream().map(Ref::getName).noneMatch("refs/heads/7"::equals)).isTrue();
+  }
+
+  @Test
+  public void randomInsertsAndDeletesMatchSortedMap() {
+    Random random = new Random(42);
+    TreeMap<String, Ref> expected = new TreeMap<>();
+    for (int i = 0; i < 5000; i++) {
+      String name = "refs/changes/" + random.nextInt(20) + "/" + random.nextInt(50);
+      if (random.nextInt(3) == 0) {
+        tree.delete(name);
+        expected.remove(name);
+      } else {
+        Ref ref = ref(name, OID_1);
+        tree.insert(name, ref);
+        expected.put(name, ref);
+      }
+    }
+
+    assertThat(tree.size()).isEqualTo(expected.size());
+    assertThat(tree.getAllValues()).containsExactlyElementsIn(expected.values()).inOrder();
+    assertThat(tree.getValuesWithPrefix("refs/changes/1"))
+        .containsExactlyElementsIn(expected.subMap("refs/changes/1", "refs/changes/2").values())
+        .inOrder();
+  }
+}
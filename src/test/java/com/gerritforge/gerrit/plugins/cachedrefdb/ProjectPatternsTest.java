@@ -0,0 +1,57 @@
+// Copyright (C) 2026 GerritForge, Inc.
+//
+// Licensed under the BSL 1.1 (the "License");
+// you may not use this file except in compliance with the License.
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.gerritforge.gerrit.plugins.cachedrefdb;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.util.List;
+import java.util.function.Predicate;
+import org.junit.Test;
+
+public class ProjectPatternsTest {
+
+  @Test
+  public void exactNameMatchesOnlyThatProject() {
+    Predicate<String> matcher = ProjectPatterns.matcher("All-Users");
+
+    assertThat(matcher.test("All-Users")).isTrue();
+    assertThat(matcher.test("All-Users-Archive")).isFalse();
+  }
+
+  @Test
+  public void trailingWildcardMatchesPrefix() {
+    Predicate<String> matcher = ProjectPatterns.matcher("platform/*");
+
+    assertThat(matcher.test("platform/build")).isTrue();
+    assertThat(matcher.test("platform/")).isTrue();
+    assertThat(matcher.test("tools/platform/build")).isFalse();
+  }
+
+  @Test
+  public void leadingCaretIsRegularExpression() {
+    Predicate<String> matcher = ProjectPatterns.matcher("^(kernel|platform)/.*-mirror");
+
+    assertThat(matcher.test("kernel/linux-mirror")).isTrue();
+    assertThat(matcher.test("kernel/linux")).isFalse();
+    assertThat(matcher.test("tools/kernel/linux-mirror")).isFalse();
+  }
+
+  @Test
+  public void anyOfMatchesAnyPattern() {
+    Predicate<String> matcher = ProjectPatterns.anyOf(List.of("All-Users", "platform/*"));
+
+    assertThat(matcher.test("All-Users")).isTrue();
+    assertThat(matcher.test("platform/build")).isTrue();
+    assertThat(matcher.test("kernel/linux")).isFalse();
+    assertThat(ProjectPatterns.anyOf(List.of()).test("All-Users")).isFalse();
+  }
+}
@@ -0,0 +1,123 @@
+// Copyright (C) 2026 GerritForge, Inc.
+//
+// Licensed under the BSL 1.1 (the "License");
+// you may not use this file except in compliance with the License.
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.gerritforge.gerrit.plugins.cachedrefdb;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import java.util.Arrays;
+import java.util.List;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectIdRef;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.SymbolicRef;
+import org.junit.Test;
+
+public class ProjectRefsSerializerTest {
+
+  private static final ObjectId OID1 =
+      ObjectId.fromString("0000000000000000000000000000000000000001");
+  private static final ObjectId OID2 =
+      ObjectId.fromString("0000000000000000000000000000000000000002");
+
+  @Test
+  public void roundTripAllKindsOfRefs() {
+    Ref master = new ObjectIdRef.PeeledNonTag(Ref.Storage.LOOSE, "refs/heads/master", OID1);
+    List<Ref> refs =
+        List.of(
+            new SymbolicRef("HEAD", master),
+            new SymbolicRef(
+                "refs/heads/alias",
+                new ObjectIdRef.Unpeeled(Ref.Storage.NEW, "refs/heads/unborn", null)),
+            master,
+            new ObjectIdRef.Unpeeled(Ref.Storage.PACKED, "refs/heads/mast\u00ebr", OID2),
+            new ObjectIdRef.PeeledTag(Ref.Storage.LOOSE_PACKED, "refs/tags/v1", OID2, OID1));
+
+    ProjectRefs restored = roundTrip(ProjectRefs.restored(RefsFingerprint.UNKNOWN, refs));
+
+    assertThat(restored.isRestored()).isTrue();
+    assertThat(restored.refs()).hasSize(refs.size());
+    for (int i = 0; i < refs.size(); i++) {
+      assertSameRef(restored.refs().get(i), refs.get(i));
+    }
+  }
+
+  @Test
+  public void roundTripLoadedTree() {
+    RefTree tree = RefTreeType.TERNARY.newTree();
+    for (int i = 0; i < 100; i++) {
+      String name = "refs/changes/" + (i % 10) + "/" + i + "/1";
+      tree.insert(name, new ObjectIdRef.Unpeeled(Ref.Storage.PACKED, name, OID1));
+    }
+
+    ProjectRefs restored = roundTrip(ProjectRefs.loaded(RefsFingerprint.UNKNOWN, tree));
+
+    assertThat(restored.refs().stream().map(Ref::getName))
+        .containsExactlyElementsIn(tree.getAllValues().stream().map(Ref::getName).toArray())
+        .inOrder();
+  }
+
+  @Test
+  public void partiallyLoadedTreeIsStoredAsUnknown() throws Exception {
+    Ref master = new ObjectIdRef.Unpeeled(Ref.Storage.PACKED, "refs/heads/master", OID1);
+    ShardedRefTree tree = ShardedRefTree.lazy(RefTreeType.TERNARY);
+    tree.load(List.of("refs/heads/"), namespace -> List.of(master));
+    RefsFingerprint fingerprint = RefsFingerprint.fromBytes(new byte[] {1, 2, 3});
+
+    ProjectRefs restored = roundTrip(ProjectRefs.loaded(fingerprint, tree));
+
+    assertThat(restored.refs()).isEmpty();
+    assertThat(restored.fingerprint()).isSameInstanceAs(RefsFingerprint.UNKNOWN);
+  }
+
+  @Test
+  public void roundTripFingerprint() {
+    RefsFingerprint fingerprint = RefsFingerprint.fromBytes(new byte[] {1, 2, 3});
+
+    ProjectRefs restored = roundTrip(ProjectRefs.restored(fingerprint, List.of()));
+
+    assertThat(restored.fingerprint().matches(fingerprint)).isTrue();
+    assertThat(roundTrip(ProjectRefs.restored(RefsFingerprint.UNKNOWN, List.of())).fingerprint())
+        .isSameInstanceAs(RefsFingerprint.UNKNOWN);
+  }
+
+  @Test
+  public void truncatedInputIsRejected() {
+    byte[] bytes =
+        ProjectRefsSerializer.INSTANCE.serialize(
+            ProjectRefs.restored(
+                RefsFingerprint.UNKNOWN,
+                List.of(new ObjectIdRef.Unpeeled(Ref.Storage.PACKED, "refs/heads/master", OID1))));
+    byte[] truncated = Arrays.copyOf(bytes, bytes.length - 1);
+
+    assertThrows(
+        IllegalStateException.class, () -> ProjectRefsSerializer.INSTANCE.deserialize(truncated));
+  }
+
+  private static ProjectRefs roundTrip(ProjectRefs projectRefs) {
+    return ProjectRefsSerializer.INSTANCE.deserialize(
+        ProjectRefsSerializer.INSTANCE.serialize(projectRefs));
+  }
+
+  private static void assertSameRef(Ref actual, Ref expected) {
+    assertThat(actual.getName()).isEqualTo(expected.getName());
+    assertThat(actual.isSymbolic()).isEqualTo(expected.isSymbolic());
+    if (expected.isSymbolic()) {
+      assertSameRef(actual.getTarget(), expected.getTarget());
+      return;
+    }
+    assertThat(actual.getStorage()).isEqualTo(expected.getStorage());
+    assertThat(actual.getObjectId()).isEqualTo(expected.getObjectId());
+    assertThat(actual.isPeeled()).isEqualTo(expected.isPeeled());
+    assertThat(actual.getPeeledObjectId()).isEqualTo(expected.getPeeledObjectId());
+  }
+}
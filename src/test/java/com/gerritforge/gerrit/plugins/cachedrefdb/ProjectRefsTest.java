@@ -0,0 +1,70 @@
+// Copyright (C) 2026 GerritForge, Inc.
+//
+// Licensed under the BSL 1.1 (the "License");
+// you may not use this file except in compliance with the License.
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.gerritforge.gerrit.plugins.cachedrefdb;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectIdRef;
+import org.eclipse.jgit.lib.Ref;
+import org.junit.Test;
+
+public class ProjectRefsTest {
+  private static final ObjectId OID =
+      ObjectId.fromString("0000000000000000000000000000000000000001");
+
+  private static Ref ref(String name) {
+    return new ObjectIdRef.Unpeeled(Ref.Storage.PACKED, name, OID);
+  }
+
+  @Test
+  public void onlyUpdatesMovingTheEstimatedSizeEnoughNeedReweigh() {
+    List<Ref> refs = new ArrayList<>();
+    for (int i = 0; i < 100; i++) {
+      refs.add(ref("refs/changes/" + (i % 100) + "/" + i + "/1"));
+    }
+    ProjectRefs projectRefs =
+        ProjectRefs.loaded(RefsFingerprint.UNKNOWN, RefTreeType.TERNARY.build(refs));
+    new RefTreeWeigher().weigh("project", projectRefs);
+    assertThat(projectRefs.needsReweigh()).isFalse();
+
+    projectRefs.update(tree -> tree.insert("refs/heads/master", ref("refs/heads/master")));
+    assertThat(projectRefs.needsReweigh()).isFalse();
+
+    for (int i = 0; i < 10; i++) {
+      String name = "refs/heads/branch-" + i;
+      projectRefs.update(tree -> tree.insert(name, ref(name)));
+    }
+    assertThat(projectRefs.needsReweigh()).isTrue();
+
+    new RefTreeWeigher().weigh("project", projectRefs);
+    assertThat(projectRefs.needsReweigh()).isFalse();
+  }
+
+  @Test
+  public void onlyAdoptsTheFingerprintOfRefsUpdatedThroughTheEntry() {
+    RefsFingerprint updated = RefsFingerprint.fromBytes(new byte[] {2});
+    RefsFingerprint loaded = RefsFingerprint.fromBytes(new byte[] {1});
+    ProjectRefs projectRefs =
+        ProjectRefs.loaded(loaded, RefTreeType.TERNARY.build(new ArrayList<>()));
+    assertThat(projectRefs.adoptFingerprint(updated)).isFalse();
+
+    projectRefs.update(tree -> tree.insert("refs/heads/master", ref("refs/heads/master")));
+    assertThat(projectRefs.adoptFingerprint(RefsFingerprint.UNKNOWN)).isFalse();
+    assertThat(projectRefs.adoptFingerprint(updated)).isTrue();
+    assertThat(projectRefs.fingerprint().matches(updated)).isTrue();
+
+    assertThat(projectRefs.adoptFingerprint(RefsFingerprint.fromBytes(new byte[] {3}))).isFalse();
+  }
+}
@@ -0,0 +1,173 @@
+// Copyright (C) 2026 GerritForge, Inc.
+//
+// Licensed under the BSL 1.1 (the "License");
+// you may not use this file except in compliance with the License.
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.gerritforge.gerrit.plugins.cachedrefdb;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectIdRef;
+import org.eclipse.jgit.lib.Ref;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RefRadixTreeTest {
+
+  private static final ObjectId OID_1 =
+      ObjectId.fromString("0000000000000000000000000000000000000001");
+  private static final ObjectId OID_2 =
+      ObjectId.fromString("0000000000000000000000000000000000000002");
+
+  private static final String REF_A = "refs/heads/a";
+  private static final String REF_AB = "refs/heads/ab";
+  private static final String REF_B = "refs/heads/b";
+  private static final String CHANGE_1 = "refs/changes/01/1/1";
+  private static final String CHANGE_1_META = "refs/changes/01/1/meta";
+  private static final String CHANGE_11 = "refs/changes/11/11/1";
+
+  private RefRadixTree tree;
+
+  @Before
+  public void setUp() {
+    tree = new RefRadixTree();
+  }
+
+  private static Ref ref(String name, ObjectId objectId) {
+    return new ObjectIdRef.Unpeeled(Ref.Storage.PACKED, name, objectId);
+  }
+
+  @Test
+  public void getReturnsOnlyExactMatches() {
+    tree.insert(REF_AB, ref(REF_AB, OID_1));
+
+    assertThat(tree.get(REF_AB)).isNotNull();
+    assertThat(tree.get(REF_A)).isNull();
+    assertThat(tree.get("refs/heads/abc")).isNull();
+    assertThat(tree.get("refs/")).isNull();
+    assertThat(tree.size()).isEqualTo(1);
+  }
+
+  @Test
+  public void insertKeyThatIsPrefixOfExistingKeySplitsNode() {
+    tree.insert(REF_AB, ref(REF_AB, OID_1));
+    tree.insert(REF_A, ref(REF_A, OID_2));
+
+    assertThat(tree.get(REF_A).getObjectId()).isEqualTo(OID_2);
+    assertThat(tree.get(REF_AB).getObjectId()).isEqualTo(OID_1);
+    assertThat(tree.size()).isEqualTo(2);
+  }
+
+  @Test
+  public void insertExistingKeyReplacesValueAndIndex() {
+    tree.insert(REF_A, ref(REF_A, OID_1));
+    tree.insert(REF_A, ref(REF_A, OID_2));
+
+    assertThat(tree.get(REF_A).getObjectId()).isEqualTo(OID_2);
+    assertThat(tree.getByObjectId(OID_1)).isEmpty();
+    assertThat(tree.getByObjectId(OID_2).stream().map(Ref::getName)).containsExactly(REF_A);
+    assertThat(tree.size()).isEqualTo(1);
+  }
+
+  @Test
+  public void getValuesWithPrefixReturnsSortedRefs() {
+    tree.insert(CHANGE_11, ref(CHANGE_11, OID_1));
+    tree.insert(REF_B, ref(REF_B, OID_1));
+    tree.insert(CHANGE_1_META, ref(CHANGE_1_META, OID_1));
+    tree.insert(REF_A, ref(REF_A, OID_1));
+    tree.insert(CHANGE_1, ref(CHANGE_1, OID_1));
+
+    assertThat(tree.getValuesWithPrefix("refs/changes/").stream().map(Ref::getName))
+        .containsExactly(CHANGE_1, CHANGE_1_META, CHANGE_11)
+        .inOrder();
+    assertThat(tree.getValuesWithPrefix("refs/changes/01/1/m").stream().map(Ref::getName))
+        .containsExactly(CHANGE_1_META);
+    assertThat(tree.getValuesWithPrefix("refs/changes/02")).isEmpty();
+    assertThat(tree.getAllValues().stream().map(Ref::getName))
+        .containsExactly(CHANGE_1, CHANGE_1_META, CHANGE_11, REF_A, REF_B)
+        .inOrder();
+  }
+
+  @Test
+  public void deleteRemovesRefAndKeepsSiblings() {
+    tree.insert(REF_A, ref(REF_A, OID_1));
+    tree.insert(REF_AB, ref(REF_AB, OID_1));
+    tree.insert(REF_B, ref(REF_B, OID_2));
+
+    tree.delete(REF_A);
+
+    assertThat(tree.contains(REF_A)).isFalse();
+    assertThat(tree.contains(REF_AB)).isTrue();
+    assertThat(tree.contains(REF_B)).isTrue();
+    assertThat(tree.size()).isEqualTo(2);
+    assertThat(tree.getByObjectId(OID_1).stream().map(Ref::getName)).containsExactly(REF_AB);
+
+    tree.delete(REF_B);
+    tree.delete(REF_AB);
+
+    assertThat(tree.size()).isEqualTo(0);
+    assertThat(tree.getAllValues()).isEmpty();
+  }
+
+  @Test
+  public void deleteMissingRefIsNoop() {
+    tree.insert(REF_AB, ref(REF_AB, OID_1));
+
+    assertThat(tree.delete(REF_A)).isEqualTo(1);
+    assertThat(tree.delete("refs/heads/abc")).isEqualTo(1);
+    assertThat(tree.contains(REF_AB)).isTrue();
+  }
+
+  @Test
+  public void renameReplacesSourceRef() {
+    tree.insert(REF_A, ref(REF_A, OID_1));
+
+    tree.rename(REF_A, ref(REF_B, OID_1));
+
+    assertThat(tree.contains(REF_A)).isFalse();
+    assertThat(tree.get(REF_B).getObjectId()).isEqualTo(OID_1);
+    assertThat(tree.getByObjectId(OID_1).stream().map(Ref::getName)).containsExactly(REF_B);
+  }
+
+  @Test
+  public void prefixScansMatchASortedMap() {
+    Random random = new Random(42);
+    TreeMap<String, Ref> expected = new TreeMap<>();
+    for (int i = 0; i < 300; i++) {
+      String name = randomName(random);
+      Ref ref = ref(name, OID_1);
+      tree.insert(name, ref);
+      expected.put(name, ref);
+    }
+
+    for (int i = 0; i < 300; i++) {
+      String name = randomName(random);
+      String prefix = name.substring(0, random.nextInt(name.length() + 1));
+      List<Ref> matching =
+          expected.tailMap(prefix).values().stream()
+              .takeWhile(r -> r.getName().startsWith(prefix))
+              .collect(Collectors.toList());
+
+      assertThat(tree.getValuesWithPrefix(prefix)).isEqualTo(matching);
+    }
+  }
+
+  private static String randomName(Random random) {
+    StringBuilder name = new StringBuilder();
+    for (int len = 1 + random.nextInt(8); len > 0; len--) {
+      name.append("ab/c".charAt(random.nextInt(4)));
+    }
+    return name.toString();
+  }
+}
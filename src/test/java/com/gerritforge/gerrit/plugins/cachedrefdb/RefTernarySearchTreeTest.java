@@ -13,6 +13,10 @@ package com.gerritforge.gerrit.plugins.cachedrefdb;
 
 import static com.google.common.truth.Truth.assertThat;
 
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.ObjectIdRef;
 import org.eclipse.jgit.lib.Ref;
@@ -126,4 +130,112 @@ public class RefTernarySearchTreeTest {
     assertThat(tree.getByObjectId(OID_1).stream().map(Ref::getName)).containsExactly(TAG_V1);
     assertThat(tree.getByObjectId(OID_2).stream().map(Ref::getName)).isEmpty();
   }
+
+  @Test
+  public void exactLookupFollowsInsertDeleteAndRename() {
+    tree.insert(REF_A, ref(REF_A, OID_1));
+    tree.insert(REF_A, ref(REF_A, OID_2));
+
+    assertThat(tree.get(REF_A).getObjectId()).isEqualTo(OID_2);
+    assertThat(tree.contains(REF_B)).isFalse();
+
+    tree.rename(REF_A, ref(REF_B, OID_2));
+
+    assertThat(tree.get(REF_A)).isNull();
+    assertThat(tree.contains(REF_A)).isFalse();
+    assertThat(tree.get(REF_B).getObjectId()).isEqualTo(OID_2);
+    assertThat(tree.getValuesWithPrefix("refs/heads/").stream().map(Ref::getName))
+        .containsExactly(REF_B);
+
+    tree.delete(REF_B);
+
+    assertThat(tree.get(REF_B)).isNull();
+    assertThat(tree.getAllValues()).isEmpty();
+  }
+
+  @Test
+  public void exactLookupIsNotAPrefixMatch() {
+    tree.insert(TAG_V1, ref(TAG_V1, OID_1));
+
+    assertThat(tree.get("refs/tags/v1")).isNull();
+    assertThat(tree.contains("refs/tags/v1")).isFalse();
+    assertThat(tree.get(TAG_V1 + ".1")).isNull();
+  }
+
+  @Test
+  public void prefixScansReturnRefsInKeyOrder() {
+    String[] names = {
+      "refs/heads/b", "refs/heads/a/x", "refs/heads/a", "refs/heads/c", "refs/tags/a"
+    };
+    for (String name : names) {
+      tree.insert(name, ref(name, OID_1));
+    }
+
+    assertThat(tree.getValuesWithPrefix("refs/heads/").stream().map(Ref::getName))
+        .containsExactly("refs/heads/a", "refs/heads/a/x", "refs/heads/b", "refs/heads/c")
+        .inOrder();
+    assertThat(tree.getKeysWithPrefix("refs/heads/a"))
+        .containsExactly("refs/heads/a", "refs/heads/a/x")
+        .inOrder();
+    assertThat(tree.getWithPrefix("refs/").keySet()).containsExactlyElementsIn(names);
+  }
+
+  @Test
+  public void deleteRemovesNodesOnlyUsedByTheDeletedRef() {
+    tree.insert(REF_A, ref(REF_A, OID_1));
+    int nodes = tree.nodeCount();
+    tree.insert(REF_A + "/x", ref(REF_A + "/x", OID_1));
+    tree.insert(REF_B, ref(REF_B, OID_1));
+
+    tree.delete(REF_A + "/x");
+    tree.delete(REF_B);
+
+    assertThat(tree.nodeCount()).isEqualTo(nodes);
+    assertThat(tree.getKeysWithPrefix("refs/heads/")).containsExactly(REF_A);
+  }
+
+  @Test
+  public void veryLongRefNamesDoNotOverflowTheStack() {
+    String name = "refs/heads/" + "x".repeat(500_000);
+    tree.insert(name, ref(name, OID_1));
+
+    assertThat(tree.getValuesWithPrefix("refs/heads/").stream().map(Ref::getName))
+        .containsExactly(name);
+    assertThat(tree.getKeys()).containsExactly(name);
+
+    tree.delete(name);
+
+    assertThat(tree.getAllValues()).isEmpty();
+  }
+
+  @Test
+  public void prefixScansMatchASortedMap() {
+    Random random = new Random(42);
+    TreeMap<String, Ref> expected = new TreeMap<>();
+    for (int i = 0; i < 300; i++) {
+      String name = randomName(random);
+      Ref ref = ref(name, OID_1);
+      tree.insert(name, ref);
+      expected.put(name, ref);
+    }
+
+    for (int i = 0; i < 300; i++) {
+      String name = randomName(random);
+      String prefix = name.substring(0, random.nextInt(name.length() + 1));
+      List<Ref> matching =
+          expected.tailMap(prefix).values().stream()
+              .takeWhile(r -> r.getName().startsWith(prefix))
+              .collect(Collectors.toList());
+
+      assertThat(tree.getValuesWithPrefix(prefix)).isEqualTo(matching);
+    }
+  }
+
+  private static String randomName(Random random) {
+    StringBuilder name = new StringBuilder();
+    for (int len = 1 + random.nextInt(8); len > 0; len--) {
+      name.append("ab/c".charAt(random.nextInt(4)));
+    }
+    return name.toString();
+  }
 }
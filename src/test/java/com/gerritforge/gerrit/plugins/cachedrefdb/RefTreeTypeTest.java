@@ -0,0 +1,405 @@
+// Copyright (C) 2026 GerritForge, Inc.
+//
+// Licensed under the BSL 1.1 (the "License");
+// you may not use this file except in compliance with the License.
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.gerritforge.gerrit.plugins.cachedrefdb;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectIdRef;
+import org.eclipse.jgit.lib.Ref;
+import org.junit.Test;
+
+public class RefTreeTypeTest {
+
+  private static final ObjectId OID =
+      ObjectId.fromString("0000000000000000000000000000000000000001");
+
+  private static Ref ref(String name) {
+    return new ObjectIdRef.Unpeeled(Ref.Storage.PACKED, name, OID);
+  }
+
+  @Test
+  public void buildFromSortedRefs() {
+    List<Ref> refs = new ArrayList<>();
+    for (int i = 10; i < 100; i++) {
+      refs.add(ref("refs/changes/" + i + "/1"));
+    }
+
+    for (RefTreeType type : RefTreeType.values()) {
+      RefTree tree = type.build(refs);
+
+      assertThat(tree.size()).isEqualTo(refs.size());
+      assertThat(tree.getAllValues()).containsExactlyElementsIn(refs).inOrder();
+      assertThat(tree.get("refs/changes/42/1")).isEqualTo(refs.get(32));
+    }
+  }
+
+  @Test
+  public void deletedRefsLeaveNoNodesBehind() {
+    Random random = new Random(42);
+    for (RefTreeType type : RefTreeType.values()) {
+      RefTree tree = type.newTree();
+      TreeMap<String, Ref> expected = new TreeMap<>();
+      for (int i = 0; i < 5000; i++) {
+        String name = "refs/changes/" + random.nextInt(30) + "/" + random.nextInt(100);
+        if (random.nextInt(3) == 0) {
+          tree.delete(name);
+          expected.remove(name);
+        } else {
+          tree.insert(name, ref(name));
+          expected.put(name, ref(name));
+        }
+      }
+
+      assertThat(tree.getAllValues().stream().map(Ref::getName))
+          .containsExactlyElementsIn(expected.keySet())
+          .inOrder();
+      assertThat(tree.nodeCount())
+          .isEqualTo(type.build(new ArrayList<>(expected.values())).nodeCount());
+
+      expected.keySet().forEach(tree::delete);
+
+      assertThat(tree.size()).isEqualTo(0);
+      assertThat(tree.nodeCount()).isEqualTo(0);
+    }
+  }
+
+  @Test
+  public void estimatedBytesFollowInsertsAndDeletes() {
+    Random random = new Random(42);
+    for (RefTreeType type : RefTreeType.values()) {
+      RefTree tree = type.newTree();
+      TreeMap<String, Ref> expected = new TreeMap<>();
+      assertThat(tree.estimatedBytes()).isEqualTo(0);
+
+      tree.insert("refs/heads/master", ref("refs/heads/master"));
+      long oneRef = tree.estimatedBytes();
+      assertThat(oneRef).isGreaterThan(RefSizeEstimator.refBytes(ref("refs/heads/master")));
+      tree.rename("refs/heads/master", ref("refs/heads/main"));
+      assertThat(tree.estimatedBytes()).isLessThan(oneRef);
+      tree.delete("refs/heads/main");
+      assertThat(tree.estimatedBytes()).isEqualTo(0);
+
+      for (int i = 0; i < 5000; i++) {
+        String name = "refs/changes/" + random.nextInt(30) + "/" + random.nextInt(100);
+        if (random.nextInt(3) == 0) {
+          tree.delete(name);
+          expected.remove(name);
+        } else {
+          tree.insert(name, ref(name));
+          expected.put(name, ref(name));
+        }
+      }
+
+      assertThat(tree.estimatedBytes())
+          .isEqualTo(type.build(new ArrayList<>(expected.values())).estimatedBytes());
+
+      expected.keySet().forEach(tree::delete);
+
+      assertThat(tree.estimatedBytes()).isEqualTo(0);
+    }
+  }
+
+  @Test
+  public void emptyRefNamesAreRejectedByAllTypes() {
+    List<Ref> refs = List.of(ref("refs/heads/master"));
+
+    for (RefTreeType type : RefTreeType.values()) {
+      for (RefTree tree : List.of(type.build(refs), ShardedRefTree.build(type, refs))) {
+        assertThrows(IllegalArgumentException.class, () -> tree.get(""));
+        assertThrows(IllegalArgumentException.class, () -> tree.getAll("refs/heads/master", ""));
+        assertThrows(IllegalArgumentException.class, () -> tree.getFirst(""));
+        assertThrows(IllegalArgumentException.class, () -> tree.delete(""));
+      }
+    }
+  }
+
+  @Test
+  public void buildFromUnsortedRefs() {
+    List<Ref> refs =
+        List.of(ref("refs/tags/v1"), ref("refs/heads/master"), ref("refs/heads/main"), ref("HEAD"));
+
+    for (RefTreeType type : RefTreeType.values()) {
+      RefTree tree = type.build(refs);
+
+      assertThat(tree.getAllValues().stream().map(Ref::getName))
+          .containsExactly("HEAD", "refs/heads/main", "refs/heads/master", "refs/tags/v1")
+          .inOrder();
+    }
+  }
+
+  @Test
+  public void reconcileAppliesOnlyChangedRefs() {
+    ObjectId otherOid = ObjectId.fromString("0000000000000000000000000000000000000002");
+    List<Ref> refs = new ArrayList<>();
+    for (int i = 10; i < 100; i++) {
+      refs.add(ref("refs/changes/" + i + "/1"));
+    }
+    Ref updated = new ObjectIdRef.Unpeeled(Ref.Storage.LOOSE, "refs/changes/42/1", otherOid);
+    List<Ref> onDisk = new ArrayList<>(refs);
+    onDisk.set(32, updated);
+    onDisk.remove(50);
+    onDisk.add(ref("refs/heads/master"));
+    onDisk.add(0, ref("HEAD"));
+
+    for (RefTreeType type : RefTreeType.values()) {
+      RefTree tree = type.build(refs);
+
+      assertThat(tree.reconcile(onDisk)).isEqualTo(4);
+      assertThat(tree.getAllValues()).containsExactlyElementsIn(onDisk).inOrder();
+      assertThat(tree.getByObjectId(otherOid)).containsExactly(updated);
+      assertThat(tree.getByObjectId(OID)).hasSize(onDisk.size() - 1);
+      assertThat(tree.estimatedBytes()).isEqualTo(type.build(onDisk).estimatedBytes());
+      assertThat(tree.reconcile(onDisk)).isEqualTo(0);
+    }
+  }
+
+  @Test
+  public void applyUpdatesAndDeletesAtOnce() {
+    ObjectId otherOid = ObjectId.fromString("0000000000000000000000000000000000000002");
+    List<Ref> refs = new ArrayList<>();
+    for (int i = 10; i < 100; i++) {
+      refs.add(ref("refs/changes/" + i + "/1"));
+    }
+    Ref updated = new ObjectIdRef.Unpeeled(Ref.Storage.LOOSE, "refs/changes/42/1", otherOid);
+    Ref created = ref("refs/heads/master");
+    Map<String, Ref> changes = new LinkedHashMap<>();
+    changes.put(updated.getName(), updated);
+    changes.put(created.getName(), created);
+    List<String> deleted = List.of("refs/changes/10/1", "refs/changes/missing");
+    List<Ref> expected = new ArrayList<>(refs);
+    expected.set(32, updated);
+    expected.remove(0);
+    expected.add(created);
+
+    for (RefTreeType type : RefTreeType.values()) {
+      RefTree tree = type.build(refs);
+      RefTree sharded = ShardedRefTree.build(type, refs);
+
+      assertThat(tree.apply(changes, deleted)).isEqualTo(expected.size());
+      assertThat(tree.getAllValues()).containsExactlyElementsIn(expected).inOrder();
+      assertThat(tree.getByObjectId(otherOid)).containsExactly(updated);
+      assertThat(tree.getByObjectId(OID)).hasSize(expected.size() - 1);
+      assertThat(tree.estimatedBytes()).isEqualTo(type.build(expected).estimatedBytes());
+
+      assertThat(sharded.apply(changes, deleted)).isEqualTo(expected.size());
+      assertThat(sharded.getAllValues()).containsExactlyElementsIn(expected).inOrder();
+      assertThat(sharded.estimatedBytes())
+          .isEqualTo(ShardedRefTree.build(type, expected).estimatedBytes());
+    }
+  }
+
+  @Test
+  public void getAllAndFirstFollowTheGivenNames() {
+    List<Ref> refs = List.of(ref("HEAD"), ref("refs/heads/master"), ref("refs/tags/master"));
+    String[] searchPath = {
+      "master", "refs/master", "refs/tags/master", "refs/heads/master", "refs/remotes/master"
+    };
+
+    for (RefTreeType type : RefTreeType.values()) {
+      for (RefTree tree : List.of(type.build(refs), ShardedRefTree.build(type, refs))) {
+        assertThat(tree.getAll(searchPath).keySet())
+            .containsExactly("refs/tags/master", "refs/heads/master")
+            .inOrder();
+        assertThat(tree.getFirst(searchPath)).isEqualTo(refs.get(2));
+        assertThat(tree.getFirst("master", "refs/master")).isNull();
+        assertThat(tree.getAll()).isEmpty();
+      }
+    }
+  }
+
+  @Test
+  public void getValuesWithPrefixExcludingSkipsExcludedRefs() {
+    List<Ref> refs = new ArrayList<>();
+    refs.add(ref("HEAD"));
+    for (int i = 0; i < 300; i++) {
+      refs.add(ref("refs/changes/" + (i % 100) + "/" + i + "/1"));
+    }
+    refs.add(ref("refs/heads/master"));
+    refs.add(ref("refs/heads/stable"));
+    refs.add(ref("refs/tags/v1"));
+    refs.sort(Comparator.comparing(Ref::getName));
+    List<List<String>> queries =
+        List.of(
+            List.of("", "refs/changes/"),
+            List.of("refs/", "refs/changes/", "refs/tags/v1"),
+            List.of("refs/changes/", "refs/changes/1", "refs/changes/42/"),
+            List.of("refs/changes/4", "refs/"),
+            List.of("refs/heads/", "refs/heads/m", "refs/heads/master/x"),
+            List.of("refs/changes/42/142/1"));
+
+    for (RefTreeType type : RefTreeType.values()) {
+      for (RefTree tree : List.of(type.build(refs), ShardedRefTree.build(type, refs))) {
+        for (List<String> query : queries) {
+          String prefix = query.get(0);
+          List<String> excludes = query.subList(1, query.size());
+          List<Ref> expected =
+              refs.stream()
+                  .filter(ref -> ref.getName().startsWith(prefix))
+                  .filter(ref -> excludes.stream().noneMatch(ref.getName()::startsWith))
+                  .collect(Collectors.toList());
+
+          assertThat(tree.getValuesWithPrefixExcluding(prefix, excludes))
+              .containsExactlyElementsIn(expected)
+              .inOrder();
+        }
+      }
+    }
+  }
+
+  @Test
+  public void getValuesWithPrefixesReturnsSortedDistinctRefs() {
+    List<Ref> refs = new ArrayList<>();
+    refs.add(ref("HEAD"));
+    for (int i = 0; i < 300; i++) {
+      refs.add(ref("refs/changes/" + (i % 100) + "/" + i + "/1"));
+    }
+    refs.add(ref("refs/heads/master"));
+    refs.add(ref("refs/tags/refs/heads/v1"));
+    refs.add(ref("refs/tags/v1"));
+    refs.sort(Comparator.comparing(Ref::getName));
+    List<List<String>> queries =
+        List.of(
+            List.of("refs/tags/", "refs/heads/"),
+            List.of("refs/heads/", "refs/", "refs/changes/4"),
+            List.of("refs/tags/refs/heads/", "refs/heads/"),
+            List.of("refs/changes/42/", "refs/changes/4", "HEAD", "refs/tags/v1"),
+            List.of("refs/heads/x", "refs/meta/"),
+            List.of("", "refs/heads/"));
+
+    for (RefTreeType type : RefTreeType.values()) {
+      for (RefTree tree : List.of(type.build(refs), ShardedRefTree.build(type, refs))) {
+        for (List<String> prefixes : queries) {
+          List<Ref> expected =
+              refs.stream()
+                  .filter(ref -> prefixes.stream().anyMatch(ref.getName()::startsWith))
+                  .collect(Collectors.toList());
+
+          assertThat(tree.getValuesWithPrefixes(prefixes))
+              .containsExactlyElementsIn(expected)
+              .inOrder();
+        }
+      }
+    }
+  }
+
+  @Test
+  public void visitWithPrefixStopsWhenTheVisitorDoes() {
+    List<Ref> refs = new ArrayList<>();
+    refs.add(ref("HEAD"));
+    for (int i = 0; i < 300; i++) {
+      refs.add(ref("refs/changes/" + (i % 100) + "/" + i + "/1"));
+    }
+    refs.add(ref("refs/heads/master"));
+    refs.add(ref("refs/tags/v1"));
+    refs.sort(Comparator.comparing(Ref::getName));
+
+    for (RefTreeType type : RefTreeType.values()) {
+      RefTree plain = type.build(refs);
+      for (RefTree tree : List.of(plain, ShardedRefTree.build(type, refs))) {
+        for (String prefix : List.of("", "refs/", "refs/changes/4", "refs/heads/master", "x")) {
+          List<Ref> expected =
+              refs.stream()
+                  .filter(ref -> ref.getName().startsWith(prefix))
+                  .collect(Collectors.toList());
+          List<Ref> visited = new ArrayList<>();
+          assertThat(tree.visitWithPrefix(prefix, visited::add)).isTrue();
+          assertThat(visited).containsExactlyElementsIn(expected);
+          if (tree == plain) {
+            assertThat(visited).containsExactlyElementsIn(expected).inOrder();
+          }
+
+          visited.clear();
+          boolean completed =
+              tree.visitWithPrefix(
+                  prefix,
+                  ref -> {
+                    visited.add(ref);
+                    return false;
+                  });
+          assertThat(completed).isEqualTo(expected.isEmpty());
+          assertThat(visited).hasSize(Math.min(1, expected.size()));
+        }
+
+        List<Ref> visited = new ArrayList<>();
+        assertThat(tree.visitByObjectId(OID, visited::add)).isTrue();
+        assertThat(visited).containsExactlyElementsIn(refs);
+        visited.clear();
+        assertThat(tree.visitByObjectId(OID, ref -> visited.add(ref) && visited.size() < 5))
+            .isFalse();
+        assertThat(visited).hasSize(5);
+      }
+    }
+  }
+
+  @Test
+  public void compactRefsAreIndexedByObjectId() {
+    ObjectId[] oids = new ObjectId[7];
+    for (int i = 0; i < oids.length; i++) {
+      oids[i] = ObjectId.fromString(String.format("%040x", i + 1));
+    }
+    List<Ref> refs = new ArrayList<>();
+    for (int i = 0; i < 300; i++) {
+      String name = "refs/changes/" + (i % 100) + "/" + i + "/1";
+      refs.add(
+          CompactRef.of(new ObjectIdRef.PeeledNonTag(Ref.Storage.PACKED, name, oids[i % 7])));
+    }
+    refs.sort(Comparator.comparing(Ref::getName));
+
+    for (RefTreeType type : RefTreeType.values()) {
+      for (RefTree tree : List.of(type.build(refs), ShardedRefTree.build(type, refs))) {
+        for (int i = 0; i < 300; i += 3) {
+          tree.delete("refs/changes/" + (i % 100) + "/" + i + "/1");
+        }
+
+        for (ObjectId oid : oids) {
+          List<String> expected =
+              refs.stream()
+                  .filter(ref -> ref.getObjectId().equals(oid))
+                  .map(Ref::getName)
+                  .filter(tree::contains)
+                  .collect(Collectors.toList());
+          assertThat(tree.getByObjectId(oid).stream().map(Ref::getName))
+              .containsExactlyElementsIn(expected);
+          List<Ref> visited = new ArrayList<>();
+          assertThat(tree.visitByObjectId(oid, visited::add)).isTrue();
+          assertThat(visited).containsExactlyElementsIn(tree.getByObjectId(oid));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void compactRefKeepsObjectIdsAndFlags() {
+    ObjectId peeled = ObjectId.fromString("0123456789abcdef0123456789abcdef01234567");
+    Ref tag = new ObjectIdRef.PeeledTag(Ref.Storage.LOOSE_PACKED, "refs/tags/v1", OID, peeled);
+
+    Ref compact = CompactRef.of(tag);
+
+    assertThat(compact.getName()).isEqualTo(tag.getName());
+    assertThat(compact.getObjectId()).isEqualTo(OID);
+    assertThat(compact.getPeeledObjectId()).isEqualTo(peeled);
+    assertThat(compact.isPeeled()).isTrue();
+    assertThat(compact.getStorage()).isEqualTo(Ref.Storage.LOOSE_PACKED);
+    assertThat(CompactRef.of(ref("HEAD")).isPeeled()).isFalse();
+    assertThat(CompactRef.of(ref("HEAD")).getPeeledObjectId()).isNull();
+  }
+}
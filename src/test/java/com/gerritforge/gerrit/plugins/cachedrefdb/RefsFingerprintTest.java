@@ -0,0 +1,91 @@
+// Copyright (C) 2026 GerritForge, Inc.
+//
+// Licensed under the BSL 1.1 (the "License");
+// you may not use this file except in compliance with the License.
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.gerritforge.gerrit.plugins.cachedrefdb;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.io.File;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import org.eclipse.jgit.internal.storage.file.FileRepository;
+import org.eclipse.jgit.internal.storage.file.RefDirectory;
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class RefsFingerprintTest {
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private File gitDir;
+  private TestRepository<Repository> tr;
+  private RevCommit commit;
+
+  @Before
+  public void setUp() throws Exception {
+    gitDir = temporaryFolder.newFolder();
+    Repository repo = new FileRepository(gitDir);
+    repo.create(true);
+    tr = new TestRepository<>(repo);
+    commit = tr.update("refs/heads/master", tr.commit().create());
+    tr.update("refs/heads/stable", commit);
+  }
+
+  @Test
+  public void unchangedRefsHaveMatchingFingerprints() {
+    RefsFingerprint fingerprint = fingerprintOutOfRacyWindow();
+
+    assertThat(fingerprint.matches(fingerprintOutOfRacyWindow())).isTrue();
+    assertThat(fingerprint.matches(RefsFingerprint.fromBytes(fingerprint.toBytes()))).isTrue();
+  }
+
+  @Test
+  public void updatedLooseRefChangesFingerprint() throws Exception {
+    RefsFingerprint fingerprint = fingerprintOutOfRacyWindow();
+
+    tr.update("refs/heads/stable", tr.commit().parent(commit).create());
+
+    assertThat(fingerprint.matches(fingerprintOutOfRacyWindow())).isFalse();
+  }
+
+  @Test
+  public void packedRefsChangeFingerprint() throws Exception {
+    RefsFingerprint fingerprint = fingerprintOutOfRacyWindow();
+
+    ((RefDirectory) tr.getRepository().getRefDatabase()).pack(List.of("refs/heads/stable"));
+
+    assertThat(fingerprint.matches(fingerprintOutOfRacyWindow())).isFalse();
+  }
+
+  @Test
+  public void recentlyChangedRefsHaveUnknownFingerprint() throws Exception {
+    RefsFingerprint fingerprint = RefsFingerprint.of(gitDir);
+
+    assertThat(fingerprint).isSameInstanceAs(RefsFingerprint.UNKNOWN);
+    assertThat(fingerprint.matches(RefsFingerprint.of(gitDir))).isFalse();
+  }
+
+  @Test
+  public void repositoryNotOnDiskHasUnknownFingerprint() {
+    assertThat(RefsFingerprint.of(null)).isSameInstanceAs(RefsFingerprint.UNKNOWN);
+    assertThat(RefsFingerprint.UNKNOWN.matches(RefsFingerprint.UNKNOWN)).isFalse();
+  }
+
+  /** Fingerprint the refs as if they were last changed long ago. */
+  private RefsFingerprint fingerprintOutOfRacyWindow() {
+    return RefsFingerprint.of(gitDir, Instant.now().plus(Duration.ofHours(1)));
+  }
+}
@@ -0,0 +1,196 @@
+// Copyright (C) 2026 GerritForge, Inc.
+//
+// Licensed under the BSL 1.1 (the "License");
+// you may not use this file except in compliance with the License.
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.gerritforge.gerrit.plugins.cachedrefdb;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectIdRef;
+import org.eclipse.jgit.lib.Ref;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ShardedRefTreeTest {
+
+  private static final ObjectId OID_1 =
+      ObjectId.fromString("0000000000000000000000000000000000000001");
+  private static final ObjectId OID_2 =
+      ObjectId.fromString("0000000000000000000000000000000000000002");
+
+  private static final String HEAD = "HEAD";
+  private static final String MASTER = "refs/heads/master";
+  private static final String CONFIG = "refs/meta/config";
+  private static final String CHANGE_1 = "refs/changes/01/1/1";
+  private static final String DRAFT = "refs/draft-comments/01/1/1000";
+  private static final String TAG = "refs/tags/v1";
+
+  private ShardedRefTree tree;
+
+  @Before
+  public void setUp() {
+    tree = ShardedRefTree.build(RefTreeType.TERNARY, new ArrayList<>());
+  }
+
+  private static Ref ref(String name, ObjectId objectId) {
+    return new ObjectIdRef.Unpeeled(Ref.Storage.PACKED, name, objectId);
+  }
+
+  private void insert(String... names) {
+    for (String name : names) {
+      tree.insert(name, ref(name, OID_1));
+    }
+  }
+
+  @Test
+  public void namespaceOfRef() {
+    assertThat(RefNamespace.of(MASTER)).isEqualTo(RefNamespace.HEADS);
+    assertThat(RefNamespace.of(CHANGE_1)).isEqualTo(RefNamespace.CHANGES);
+    assertThat(RefNamespace.of("refs/heads")).isEqualTo(RefNamespace.OTHER);
+    assertThat(RefNamespace.of(DRAFT)).isEqualTo(RefNamespace.OTHER);
+    assertThat(RefNamespace.of(HEAD)).isEqualTo(RefNamespace.OTHER);
+  }
+
+  @Test
+  public void prefixQueriesMergeShardsInNameOrder() {
+    insert(TAG, DRAFT, CONFIG, CHANGE_1, MASTER, HEAD);
+
+    assertThat(tree.getAllValues().stream().map(Ref::getName))
+        .containsExactly(HEAD, CHANGE_1, DRAFT, MASTER, CONFIG, TAG)
+        .inOrder();
+    assertThat(tree.getValuesWithPrefix("refs/").stream().map(Ref::getName))
+        .containsExactly(CHANGE_1, DRAFT, MASTER, CONFIG, TAG)
+        .inOrder();
+    assertThat(tree.getValuesWithPrefix("refs/meta/").stream().map(Ref::getName))
+        .containsExactly(CONFIG);
+    assertThat(tree.size()).isEqualTo(6);
+  }
+
+  @Test
+  public void renameAcrossNamespaces() {
+    insert(MASTER);
+
+    tree.rename(MASTER, ref(TAG, OID_2));
+
+    assertThat(tree.get(MASTER)).isNull();
+    assertThat(tree.get(TAG).getObjectId()).isEqualTo(OID_2);
+    assertThat(tree.size()).isEqualTo(1);
+    assertThat(tree.getByObjectId(OID_1)).isEmpty();
+  }
+
+  @Test
+  public void objectIdLookupSpansAllShards() {
+    insert(MASTER, CHANGE_1, HEAD);
+    tree.delete(CHANGE_1);
+
+    assertThat(tree.getByObjectId(OID_1).stream().map(Ref::getName))
+        .containsExactly(MASTER, HEAD);
+  }
+
+  @Test
+  public void randomPrefixQueriesMatchSortedMap() {
+    String[] segments = {"refs/", "heads/", "changes/", "meta/", "tags/", "users/", "x", "HEAD"};
+    Random random = new Random(42);
+    TreeMap<String, Ref> expected = new TreeMap<>();
+    for (int i = 0; i < 1000; i++) {
+      StringBuilder name = new StringBuilder();
+      for (int n = 1 + random.nextInt(4); n > 0; n--) {
+        name.append(segments[random.nextInt(segments.length)]);
+      }
+      Ref ref = ref(name.toString(), OID_1);
+      tree.insert(ref.getName(), ref);
+      expected.put(ref.getName(), ref);
+    }
+
+    for (String name : new ArrayList<>(expected.keySet()).subList(0, 200)) {
+      String prefix = name.substring(0, random.nextInt(name.length() + 1));
+      List<Ref> matching =
+          expected.tailMap(prefix).values().stream()
+              .takeWhile(r -> r.getName().startsWith(prefix))
+              .collect(Collectors.toList());
+
+      assertThat(tree.getValuesWithPrefix(prefix)).isEqualTo(matching);
+    }
+  }
+
+  @Test
+  public void lazyTreeLoadsNamespacesOnDemand() throws Exception {
+    List<Ref> onDisk = List.of(ref(HEAD, OID_1), ref(CHANGE_1, OID_1), ref(MASTER, OID_1));
+    List<RefNamespace> listed = new ArrayList<>();
+    ShardedRefTree.NamespaceLoader loader =
+        namespace -> {
+          listed.add(namespace);
+          return onDisk.stream()
+              .filter(r -> RefNamespace.of(r.getName()) == namespace)
+              .collect(Collectors.toList());
+        };
+    tree = ShardedRefTree.lazy(RefTreeType.TERNARY);
+
+    assertThat(tree.load(List.of(MASTER), loader)).isTrue();
+    assertThat(tree.load(List.of("refs/heads/"), loader)).isFalse();
+    assertThat(listed).containsExactly(RefNamespace.HEADS);
+    assertThat(tree.get(MASTER)).isEqualTo(onDisk.get(2));
+    assertThat(tree.isFullyLoaded()).isFalse();
+
+    tree.insert(TAG, ref(TAG, OID_2));
+    tree.insert(MASTER, ref(MASTER, OID_2));
+    assertThat(tree.getAllValues().stream().map(Ref::getName)).containsExactly(MASTER);
+    assertThat(tree.get(MASTER).getObjectId()).isEqualTo(OID_2);
+
+    tree.load(List.of(""), loader);
+    assertThat(tree.isFullyLoaded()).isTrue();
+    assertThat(tree.getAllValues().stream().map(Ref::getName))
+        .containsExactly(HEAD, CHANGE_1, MASTER)
+        .inOrder();
+  }
+
+  @Test
+  public void reconcileLeavesNamespacesNotLoadedAlone() throws Exception {
+    tree = ShardedRefTree.lazy(RefTreeType.TERNARY);
+    tree.load(List.of(MASTER), namespace -> List.of(ref(MASTER, OID_1)));
+
+    assertThat(tree.reconcile(List.of(ref(CHANGE_1, OID_1), ref(MASTER, OID_2)))).isEqualTo(1);
+    assertThat(tree.getAllValues().stream().map(Ref::getName)).containsExactly(MASTER);
+    assertThat(tree.get(MASTER).getObjectId()).isEqualTo(OID_2);
+    assertThat(tree.isLoaded(RefNamespace.CHANGES)).isFalse();
+  }
+
+  @Test
+  public void lookupsAcrossNamespacesSeeNoneOrAllOfABatch() throws Exception {
+    insert(MASTER);
+    AtomicBoolean done = new AtomicBoolean();
+    Thread writer =
+        new Thread(
+            () -> {
+              for (int i = 0; i < 20_000; i++) {
+                tree.apply(Map.of(CONFIG, ref(CONFIG, OID_2)), List.of(MASTER));
+                tree.apply(Map.of(MASTER, ref(MASTER, OID_1)), List.of(CONFIG));
+              }
+              done.set(true);
+            });
+    writer.start();
+    try {
+      while (!done.get()) {
+        assertThat(tree.getFirst(MASTER, CONFIG)).isNotNull();
+        assertThat(tree.getAll(MASTER, CONFIG)).hasSize(1);
+      }
+    } finally {
+      writer.join();
+    }
+  }
+}